@@ -0,0 +1,115 @@
+package fr.umlv.ninal.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.umlv.ninal.interpreter.Engine;
+import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.interpreter.Output;
+import fr.umlv.ninal.lang.Symbol;
+
+/** Compares the throughput of the functions of a library called from a single
+ *  context and called in turn from several contexts of the same engine,
+ *  the calls and the globals of the shared ASTs are then resolved through
+ *  the tables of the contexts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EngineBenchmark {
+  private static final String LIBRARY =
+      "(var step 1)\n" +
+      "(def fib (n)\n" +
+      "  (if (< n 1)\n" +
+      "    1\n" +
+      "    (+ (fib (- n 1)) (fib (- n 2)))\n" +
+      "  )\n" +
+      ")\n" +
+      "(def add (x, y)\n" +
+      "  (+ x y)\n" +
+      ")\n" +
+      "(def loop-add (n)\n" +
+      "  (block\n" +
+      "    (var sum 0)\n" +
+      "    (range i 1 n\n" +
+      "      (set sum (add sum step))\n" +
+      "    )\n" +
+      "    sum\n" +
+      "  )\n" +
+      ")\n";
+  
+  private static final Symbol FIB = new Symbol("fib");
+  private static final Symbol LOOP_ADD = new Symbol("loop-add");
+  private static final int N = 10000;
+  private static final int CONTEXTS = 4;
+  
+  private Interpreter single;
+  private Interpreter[] contexts;
+  private int index;
+  
+  @Setup
+  public void setup() {
+    single = new Interpreter();
+    single.setOutput(Output.memory());
+    single.interpret(LIBRARY.getBytes(StandardCharsets.UTF_8));
+    
+    Interpreter root = new Interpreter();
+    root.setOutput(Output.memory());
+    root.interpret(LIBRARY.getBytes(StandardCharsets.UTF_8));
+    Engine engine = new Engine(root);
+    contexts = new Interpreter[CONTEXTS];
+    for(int i = 0; i < contexts.length; i++) {
+      contexts[i] = engine.createContext(Output.memory());
+    }
+    for(Interpreter context: contexts) {  // the shared ASTs see several contexts
+      check("fib", context.invokeInt(FIB, 20), single.invokeInt(FIB, 20));
+      check("loop-add", context.invokeInt(LOOP_ADD, N), single.invokeInt(LOOP_ADD, N));
+    }
+  }
+  
+  private static void check(String name, int result, int expected) {
+    if (result != expected) {
+      throw new IllegalStateException(name + " returns " + result + " instead of " + expected);
+    }
+  }
+  
+  private Interpreter nextContext() {
+    Interpreter context = contexts[index];
+    index = (index + 1) % contexts.length;
+    return context;
+  }
+  
+  @Benchmark
+  public int fibSingleContext() {
+    return single.invokeInt(FIB, 20);
+  }
+  
+  @Benchmark
+  public int fibSharedEngine() {
+    return nextContext().invokeInt(FIB, 20);
+  }
+  
+  @Benchmark
+  public int loopAddSingleContext() {
+    return single.invokeInt(LOOP_ADD, N);
+  }
+  
+  @Benchmark
+  public int loopAddSharedEngine() {
+    return nextContext().invokeInt(LOOP_ADD, N);
+  }
+}
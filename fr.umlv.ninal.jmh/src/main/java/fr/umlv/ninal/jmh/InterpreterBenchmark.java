@@ -0,0 +1,140 @@
+package fr.umlv.ninal.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.interpreter.Output;
+import fr.umlv.ninal.lang.Symbol;
+
+/** Runs the workloads of fib.ninal, sum.ninal and add.ninal in one interpreter,
+ *  compared to the same code in plain Java.
+ *  The loops stop before the sums overflow an int, the setup checks that
+ *  the interpreter and Java compute the same results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+  private static final String SOURCE =
+      "(def fib (n)\n" +
+      "  (if (< n 1)\n" +
+      "    1\n" +
+      "    (+ (fib (- n 1)) (fib (- n 2)))\n" +
+      "  )\n" +
+      ")\n" +
+      "(def add (x, y)\n" +
+      "  (+ x y)\n" +
+      ")\n" +
+      "(def sum (n)\n" +
+      "  (block\n" +
+      "    (var sum 0)\n" +
+      "    (range i 1 n\n" +
+      "      (set sum (add sum i))\n" +
+      "    )\n" +
+      "    sum\n" +
+      "  )\n" +
+      ")\n" +
+      "(def loop-add (n)\n" +
+      "  (block\n" +
+      "    (var sum 0)\n" +
+      "    (range i 1 n\n" +
+      "      (set sum (add sum 1))\n" +
+      "    )\n" +
+      "    sum\n" +
+      "  )\n" +
+      ")\n";
+  
+  private static final Symbol FIB = new Symbol("fib");
+  private static final Symbol SUM = new Symbol("sum");
+  private static final Symbol LOOP_ADD = new Symbol("loop-add");
+  private static final int N = 10000;  // sum stays below Integer.MAX_VALUE
+  
+  private Interpreter interpreter;
+  
+  @Setup
+  public void setup() {
+    interpreter = new Interpreter();
+    interpreter.setOutput(Output.memory());
+    interpreter.interpret(SOURCE.getBytes(StandardCharsets.UTF_8));
+    check("fib", fib(), fibJava());
+    check("sum", sum(), sumJava());
+    check("loop-add", loopAdd(), loopAddJava());
+  }
+  
+  private static void check(String name, int result, int expected) {
+    if (result != expected) {
+      throw new IllegalStateException(name + " returns " + result + " instead of " + expected);
+    }
+  }
+  
+  @Benchmark
+  public int fib() {
+    return interpreter.invokeInt(FIB, 20);
+  }
+  
+  @Benchmark
+  public int fibJava() {
+    return fib(20);
+  }
+  
+  private static int fib(int n) {
+    if (n < 1) {
+      return 1;
+    }
+    return fib(n - 1) + fib(n - 2);
+  }
+  
+  @Benchmark
+  public int sum() {
+    return interpreter.invokeInt(SUM, N);
+  }
+  
+  @Benchmark
+  public int sumJava() {
+    int sum = 0;
+    for(int i = 1; i < N; i++) {
+      sum = add(sum, i);
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  public int loopAdd() {
+    return interpreter.invokeInt(LOOP_ADD, N);
+  }
+  
+  @Benchmark
+  public int loopAddJava() {
+    int sum = 0;
+    for(int i = 1; i < N; i++) {
+      sum = add(sum, 1);
+    }
+    return sum;
+  }
+  
+  private static int add(int x, int y) {
+    return x + y;
+  }
+  
+  @Benchmark
+  public void interpretFib() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setOutput(Output.memory());
+    interpreter.interpret((SOURCE + "(print (fib 20))\n").getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,85 @@
+package fr.umlv.ninal.jmh;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.umlv.ninal.lang.List;
+
+/** Compares List.Builder and List.subList to java.util.ArrayList.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListBenchmark {
+  @Param({"4", "64"})
+  public int size;
+  
+  private Object[] values;
+  private List list;
+  private ArrayList<Object> arrayList;
+  
+  @Setup
+  public void setup() {
+    values = new Object[size];
+    for(int i = 0; i < size; i++) {
+      values[i] = i;
+    }
+    List.Builder builder = new List.Builder();
+    for(Object value: values) {
+      builder.append(value);
+    }
+    list = builder.toList();
+    arrayList = new ArrayList<>(list);
+  }
+  
+  @Benchmark
+  public List builder() {
+    List.Builder builder = new List.Builder();
+    for(Object value: values) {
+      builder.append(value);
+    }
+    return builder.toList();
+  }
+  
+  @Benchmark
+  public ArrayList<Object> builderJava() {
+    ArrayList<Object> list = new ArrayList<>();
+    for(Object value: values) {
+      list.add(value);
+    }
+    return list;
+  }
+  
+  @Benchmark
+  public int subList() {
+    int sum = 0;
+    for(Object value: list.subList(1, size)) {
+      sum += (Integer)value;
+    }
+    return sum;
+  }
+  
+  @Benchmark
+  public int subListJava() {
+    int sum = 0;
+    for(Object value: arrayList.subList(1, size)) {
+      sum += (Integer)value;
+    }
+    return sum;
+  }
+}
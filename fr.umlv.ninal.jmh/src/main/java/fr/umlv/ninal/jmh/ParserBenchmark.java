@@ -0,0 +1,89 @@
+package fr.umlv.ninal.jmh;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.umlv.ninal.parser.Parser;
+
+/** Parses a generated corpus of function definitions,
+ *  with the bodies parsed eagerly or lazily.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark {
+  @Param({"10", "1000"})
+  public int functions;
+  
+  @Param({"4"})
+  public int depth;
+  
+  private byte[] corpus;
+  
+  @Setup
+  public void setup() {
+    Random random = new Random(0);
+    StringBuilder builder = new StringBuilder();
+    for(int i = 0; i < functions; i++) {
+      builder.append("(def f").append(i).append(" (a, b)\n  ");
+      expression(builder, random, depth);
+      builder.append("\n)\n");
+    }
+    builder.append("(print (f0 1 2))\n");
+    corpus = builder.toString().getBytes(StandardCharsets.UTF_8);
+  }
+  
+  private static void expression(StringBuilder builder, Random random, int depth) {
+    if (depth == 0) {
+      switch(random.nextInt(3)) {
+      case 0:
+        builder.append('a');
+        return;
+      case 1:
+        builder.append('b');
+        return;
+      default:
+        builder.append(random.nextInt(1000));
+        return;
+      }
+    }
+    builder.append(random.nextBoolean()? "(+ ": "(- ");
+    expression(builder, random, depth - 1);
+    builder.append(' ');
+    expression(builder, random, depth - 1);
+    builder.append(')');
+  }
+  
+  @Benchmark
+  public void parseList(Blackhole blackhole) {
+    Parser parser = new Parser(corpus);
+    while(!parser.end()) {
+      blackhole.consume(parser.parseList());
+    }
+  }
+  
+  @Benchmark
+  public void parseListLazyBodies(Blackhole blackhole) {
+    Parser parser = new Parser(corpus, true);
+    while(!parser.end()) {
+      blackhole.consume(parser.parseList());
+    }
+  }
+}
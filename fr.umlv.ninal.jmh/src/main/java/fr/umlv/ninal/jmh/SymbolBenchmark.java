@@ -0,0 +1,69 @@
+package fr.umlv.ninal.jmh;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.umlv.ninal.lang.Symbol;
+
+/** Looks up symbols in a map, like the interpreter does when it creates an AST,
+ *  compared to a lookup with a String key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SymbolBenchmark {
+  private static final String[] NAMES = { "def", "block", "if", "range", "var", "set", "print", "fib", "add", "sum" };
+  
+  private final HashMap<Symbol, Object> symbolMap = new HashMap<>();
+  private final HashMap<String, Object> stringMap = new HashMap<>();
+  private String[] names;
+  
+  @Setup
+  public void setup() {
+    for(String name: NAMES) {
+      symbolMap.put(new Symbol(name), name);
+      stringMap.put(name, name);
+    }
+    // not the same instances as the keys, like symbols created by the parser
+    names = new String[NAMES.length];
+    for(int i = 0; i < NAMES.length; i++) {
+      names[i] = new String(NAMES[i]);
+    }
+  }
+  
+  @Benchmark
+  public int lookupSymbol() {
+    int found = 0;
+    for(String name: names) {
+      if (symbolMap.get(new Symbol(name)) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+  
+  @Benchmark
+  public int lookupString() {
+    int found = 0;
+    for(String name: names) {
+      if (stringMap.get(name) != null) {
+        found++;
+      }
+    }
+    return found;
+  }
+}
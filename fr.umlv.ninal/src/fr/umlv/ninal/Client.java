@@ -0,0 +1,110 @@
+package fr.umlv.ninal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/** Sends a script to a {@link ScriptServer} and prints what the script prints.
+ *  The script is read from a file, from the command line with -e
+ *  or from the standard input with -.
+ *  If the script fails, the error is printed on the standard error
+ *  and the exit status is 1.
+ */
+public class Client {
+  private static void usage() {
+    System.err.println("usage: ninal-client address (script.ninal | -e expression | -)\n" +
+        "  address                    the path of the Unix domain socket or the port of the server");
+    System.exit(1);
+  }
+  
+  private static byte[] readAll(InputStream input) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while((read = input.read(buffer)) != -1) {
+      output.write(buffer, 0, read);
+    }
+    return output.toByteArray();
+  }
+  
+  /** Sends a script to a server and writes what the script prints.
+   * @param address the address of the server.
+   * @param script the script.
+   * @param out the destination of what the script prints.
+   * @param err the destination of the error if the script fails.
+   * @return the exit status, 0 if the script succeeds, 1 if it fails.
+   * @throws IOException if an I/O error occurs or if the response is not valid.
+   */
+  static int send(SocketAddress address, byte[] script, WritableByteChannel out, PrintStream err) throws IOException {
+    try(SocketChannel channel = ScriptServer.openChannel(address)) {
+      ByteBuffer buffer = ByteBuffer.wrap(script);
+      while(buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.shutdownOutput();  // the server evaluates the script once it is fully received
+      
+      DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      for(;;) {
+        byte kind;
+        try {
+          kind = input.readByte();
+        } catch(EOFException e) {
+          err.println("error: connection closed by the server");
+          return 1;
+        }
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        switch(kind) {
+        case ScriptServer.FRAME_OUTPUT:
+          ByteBuffer output = ByteBuffer.wrap(payload);
+          while(output.hasRemaining()) {
+            out.write(output);
+          }
+          continue;
+        case ScriptServer.FRAME_ERROR:
+          err.println("error: " + new String(payload, StandardCharsets.UTF_8));
+          return 1;
+        case ScriptServer.FRAME_END:
+          return 0;
+        default:
+          throw new IOException("invalid response, unknown frame " + kind);
+        }
+      }
+    }
+  }
+  
+  public static void main(String[] args) throws IOException {
+    byte[] script;
+    if (args.length == 3 && args[1].equals("-e")) {
+      script = args[2].getBytes(StandardCharsets.UTF_8);
+    } else if (args.length == 2 && args[1].equals("-")) {
+      script = readAll(System.in);
+    } else if (args.length == 2) {
+      script = Files.readAllBytes(Paths.get(args[1]));
+    } else {
+      usage();
+      return;
+    }
+    
+    int status;
+    try(FileChannel out = new FileOutputStream(FileDescriptor.out).getChannel()) {
+      status = send(ScriptServer.address(args[0]), script, out, System.err);
+    }
+    System.exit(status);
+  }
+}
@@ -1,13 +1,185 @@
 package fr.umlv.ninal;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import fr.umlv.ninal.interpreter.Allocations;
+import fr.umlv.ninal.interpreter.Budget;
+import fr.umlv.ninal.interpreter.Engine;
 import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.interpreter.Output;
+import fr.umlv.ninal.interpreter.Profiler;
+import fr.umlv.ninal.parser.ParsingException;
 
 public class Main {
+  private static void usage() {
+    System.err.println("usage: ninal [options] script.ninal\n" +
+        "       ninal --daemon=address [options] [library.ninal]\n" +
+        "  --eager                    create the call targets of all functions when they are defined\n" +
+        "  --warmup=count:expression  evaluate expression count times after the definitions (def, eager\n" +
+        "                             and var) at the start of the script, before the first other form\n" +
+        "  --compilation-report       print which call targets are compiled at the end\n" +
+        "  --output=path              print into a file instead of the standard output\n" +
+        "  --trace=category[:level],..  trace parse, specialization, calls, compilation or all\n" +
+        "                             with level info (default), debug or off\n" +
+        "  --trace-file=path          write the traces into a file instead of the standard error at exit\n" +
+        "  --profile[=sample]         print the time spent in each function at exit,\n" +
+        "                             by instrumenting the calls (default) or by sampling the call stacks\n" +
+        "  --profile-output=path      also write the collapsed call stacks (flamegraph input) into a file,\n" +
+        "                             requires --profile\n" +
+        "  --telemetry                expose the specialization counters as a JMX MBean and print them at exit\n" +
+        "  --allocations              print the AST nodes that allocate the most at exit\n" +
+        "  --max-iterations=count     abort after count loop iterations and calls\n" +
+        "  --max-time=millis          abort after millis milliseconds\n" +
+        "  --max-depth=depth          abort if the calls are nested deeper than depth\n" +
+        "  --max-allocations=count    abort after count elements are allocated\n" +
+        "  --watch                    evaluate again the modified forms each time the script changes,\n" +
+        "                             the limits, the warmups and the report apply to each evaluation\n" +
+        "  --daemon=address           load the library then evaluate the scripts sent by ninal-client\n" +
+        "                             on a Unix domain socket (a path) or a loopback port (a number),\n" +
+        "                             the limits apply to each script");
+    System.exit(1);
+  }
+  
+  /* a number of an option, a malformed or negative number is a usage error */
+  private static long parseCount(String value, long max) {
+    long count;
+    try {
+      count = Long.parseLong(value);
+    } catch(NumberFormatException e) {
+      count = -1;
+    }
+    if (count < 0 || count > max) {
+      usage();
+    }
+    return count;
+  }
+  
   public static void main(String[] args) throws IOException {
+    // the trace levels are read once, so they must be set before the interpreter is created
+    for(String arg: args) {
+      if (arg.startsWith("--trace=")) {
+        System.setProperty("ninal.trace", arg.substring("--trace=".length()));
+      } else if (arg.startsWith("--trace-file=")) {
+        System.setProperty("ninal.trace.file", arg.substring("--trace-file=".length()));
+      } else if (arg.equals("--allocations")) {
+        System.setProperty("ninal.allocations", "true");
+      } else if (arg.equals("--profile")) {
+        System.setProperty("ninal.profile", "instrument");
+      } else if (arg.startsWith("--profile=")) {
+        System.setProperty("ninal.profile", arg.substring("--profile=".length()));
+      }
+    }
     Interpreter interpreter = new Interpreter();
-    interpreter.interpret(Paths.get(args[0]));
+    Path path = null;
+    Path profileOutput = null;
+    boolean telemetry = false;
+    boolean watch = false;
+    String daemon = null;
+    long maxIterations = Long.MAX_VALUE;
+    long maxTime = Long.MAX_VALUE;
+    int maxDepth = Integer.MAX_VALUE;
+    long maxAllocations = Long.MAX_VALUE;
+    for(String arg: args) {
+      if (arg.equals("--eager")) {
+        interpreter.setEagerDefinitions(true);
+        continue;
+      }
+      if (arg.equals("--compilation-report")) {
+        interpreter.setCompilationReport(true);
+        continue;
+      }
+      if (arg.startsWith("--warmup=")) {
+        String warmup = arg.substring("--warmup=".length());
+        int colon = warmup.indexOf(':');
+        if (colon == -1) {
+          usage();
+        }
+        int count = (int)parseCount(warmup.substring(0, colon), Integer.MAX_VALUE);
+        try {
+          interpreter.addWarmup(count, warmup.substring(colon + 1));
+        } catch(ParsingException e) {
+          usage();
+        }
+        continue;
+      }
+      if (arg.startsWith("--output=")) {
+        interpreter.setOutput(Output.file(Paths.get(arg.substring("--output=".length()))));
+        continue;
+      }
+      if (arg.startsWith("--max-iterations=")) {
+        maxIterations = parseCount(arg.substring("--max-iterations=".length()), Long.MAX_VALUE);
+        continue;
+      }
+      if (arg.startsWith("--max-time=")) {
+        maxTime = parseCount(arg.substring("--max-time=".length()), Long.MAX_VALUE);
+        continue;
+      }
+      if (arg.startsWith("--max-depth=")) {
+        maxDepth = (int)parseCount(arg.substring("--max-depth=".length()), Integer.MAX_VALUE);
+        continue;
+      }
+      if (arg.startsWith("--max-allocations=")) {
+        maxAllocations = parseCount(arg.substring("--max-allocations=".length()), Long.MAX_VALUE);
+        continue;
+      }
+      if (arg.equals("--watch")) {
+        watch = true;
+        continue;
+      }
+      if (arg.startsWith("--daemon=")) {
+        daemon = arg.substring("--daemon=".length());
+        continue;
+      }
+      if (arg.equals("--telemetry")) {
+        interpreter.getTelemetry().register();
+        telemetry = true;
+        continue;
+      }
+      if (arg.startsWith("--profile-output=")) {
+        profileOutput = Paths.get(arg.substring("--profile-output=".length()));
+        continue;
+      }
+      if (arg.startsWith("--trace=") || arg.startsWith("--trace-file=") ||
+          arg.equals("--profile") || arg.startsWith("--profile=") || arg.equals("--allocations")) {
+        continue;
+      }
+      if (arg.startsWith("--") || path != null) {
+        usage();
+      }
+      path = Paths.get(arg);
+    }
+    if (path == null && daemon == null) {
+      usage();
+    }
+    if (profileOutput != null && !Profiler.isEnabled()) {
+      usage();
+    }
+    try {
+      if (daemon != null) {
+        if (path != null) {
+          interpreter.interpret(path);
+        }
+        new ScriptServer(new Engine(interpreter), new Budget(maxIterations, maxTime, maxDepth, maxAllocations)).serve(daemon);
+      } else if (watch) {
+        new ScriptWatcher(interpreter, path, new Budget(maxIterations, maxTime, maxDepth, maxAllocations)).watch();
+      } else {
+        interpreter.interpret(path, new Budget(maxIterations, maxTime, maxDepth, maxAllocations));
+      }
+    } finally {
+      if (Profiler.isEnabled()) {
+        Profiler.printReport(System.err);
+        if (profileOutput != null) {
+          Profiler.writeCollapsedStacks(profileOutput);
+        }
+      }
+      if (telemetry) {
+        interpreter.getTelemetry().printSummary(System.err);
+      }
+      if (Allocations.isEnabled()) {
+        Allocations.printReport(System.err, 20);
+      }
+    }
   }
 }
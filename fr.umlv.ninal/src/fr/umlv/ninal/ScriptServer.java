@@ -0,0 +1,249 @@
+package fr.umlv.ninal;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import fr.umlv.ninal.interpreter.Budget;
+import fr.umlv.ninal.interpreter.Engine;
+import fr.umlv.ninal.interpreter.Output;
+import fr.umlv.ninal.interpreter.Profiler;
+
+/** A long running server that evaluates the scripts sent by the {@link Client}
+ *  with an interpreter that stays warm between the requests.
+ *
+ *  The server listens on a Unix domain socket, or on a TCP port of the loopback
+ *  interface if the address is a number. A client sends the script then closes
+ *  its side of the connection, the server sends back what the script prints
+ *  while the script runs, then the status of the script, and closes the connection.
+ *  The response is a sequence of frames, a kind byte, the length of the payload as an int
+ *  and the payload: {@link #FRAME_OUTPUT} frames contain what the script prints,
+ *  the last frame is {@link #FRAME_END} if the script succeeds or {@link #FRAME_ERROR}
+ *  with the message of the error if it fails.
+ *
+ *  The requests are evaluated concurrently, each one in its own context of an engine,
+ *  so the global variables and the definitions of a request are not seen by the others,
+ *  but the functions of the library script given at startup, the scripts sent several
+ *  times and the functions defined identically by several requests share their ASTs
+ *  and their compiled code. Each request has its own budget.
+ *
+ * @see Engine
+ */
+public class ScriptServer {
+  /** A frame containing bytes printed by the script. */
+  static final byte FRAME_OUTPUT = 'o';
+  /** The last frame if the script fails, contains the message of the error in UTF-8. */
+  static final byte FRAME_ERROR = 'e';
+  /** The last frame if the script succeeds, the payload is empty. */
+  static final byte FRAME_END = 'x';
+  
+  private final Engine engine;
+  private final Budget budget;
+  private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "ninal-request");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+  
+  /** Creates a server.
+   * @param engine the engine that creates a context for each request.
+   * @param budget the limits of each request.
+   */
+  public ScriptServer(Engine engine, Budget budget) {
+    this.engine = engine;
+    this.budget = budget;
+  }
+  
+  /** Returns the address of a Unix domain socket or of a port of the loopback interface.
+   * @param address a path or a port number.
+   * @return a socket address.
+   * @throws IOException if Unix domain sockets are not supported by the platform.
+   */
+  static SocketAddress address(String address) throws IOException {
+    if (isPort(address)) {
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+    }
+    // Unix domain sockets are only available since Java 16
+    try {
+      return (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress")
+          .getMethod("of", String.class).invoke(null, address);
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported, use a port number", e);
+    }
+  }
+  
+  private static boolean isPort(String address) {
+    if (address.isEmpty()) {
+      return false;
+    }
+    for(int i = 0; i < address.length(); i++) {
+      if (!Character.isDigit(address.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  static ProtocolFamily protocolFamily(SocketAddress address) {
+    if (address instanceof InetSocketAddress) {
+      return StandardProtocolFamily.INET;
+    }
+    return StandardProtocolFamily.valueOf("UNIX");
+  }
+  
+  static SocketChannel openChannel(SocketAddress address) throws IOException {
+    if (address instanceof InetSocketAddress) {
+      return SocketChannel.open(address);
+    }
+    try {
+      SocketChannel channel = (SocketChannel)SocketChannel.class.getMethod("open", ProtocolFamily.class)
+          .invoke(null, protocolFamily(address));
+      channel.connect(address);
+      return channel;
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported", e);
+    }
+  }
+  
+  private static ServerSocketChannel openServerChannel(SocketAddress address) throws IOException {
+    if (address instanceof InetSocketAddress) {
+      return ServerSocketChannel.open();
+    }
+    try {
+      return (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+          .invoke(null, protocolFamily(address));
+    } catch (ReflectiveOperationException e) {
+      throw new IOException("Unix domain sockets are not supported", e);
+    }
+  }
+  
+  /** Reads all the bytes until the other side closes its output.
+   * @param channel a channel.
+   * @return the bytes read.
+   * @throws IOException if an I/O error occurs.
+   */
+  static byte[] readAll(SocketChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(8192);
+    while(channel.read(buffer) != -1) {
+      if (!buffer.hasRemaining()) {
+        ByteBuffer newBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        newBuffer.put(buffer);
+        buffer = newBuffer;
+      }
+    }
+    return Arrays.copyOf(buffer.array(), buffer.position());
+  }
+  
+  /** Writes a frame, a kind byte, the length of the payload then the payload.
+   * @param channel a channel.
+   * @param kind the kind of the frame.
+   * @param payload the content of the frame.
+   * @throws IOException if an I/O error occurs.
+   */
+  static void writeFrame(SocketChannel channel, byte kind, ByteBuffer payload) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(5);
+    header.put(kind).putInt(payload.remaining()).flip();
+    ByteBuffer[] buffers = { header, payload };
+    while(payload.hasRemaining() || header.hasRemaining()) {
+      channel.write(buffers);
+    }
+  }
+  
+  /** Sends each write of the output of a script as an output frame.
+   */
+  static final class FrameChannel implements WritableByteChannel {
+    private final SocketChannel channel;
+    
+    FrameChannel(SocketChannel channel) {
+      this.channel = channel;
+    }
+    
+    @Override
+    public boolean isOpen() {
+      return channel.isOpen();
+    }
+    
+    @Override
+    public void close() {
+      // the socket is closed by the server
+    }
+    
+    @Override
+    public int write(ByteBuffer buffer) throws IOException {
+      int remaining = buffer.remaining();
+      writeFrame(channel, FRAME_OUTPUT, buffer);
+      return remaining;
+    }
+  }
+  
+  /** Accepts the requests until the current thread is interrupted.
+   * @param address the address of the server, a path or a port number.
+   * @throws IOException if the server can not listen on the address.
+   */
+  public void serve(String address) throws IOException {
+    SocketAddress socketAddress = address(address);
+    Path socketFile = null;
+    if (!(socketAddress instanceof InetSocketAddress)) {
+      socketFile = Paths.get(address);
+      Files.deleteIfExists(socketFile);  // left by a previous server
+    }
+    try(ServerSocketChannel serverChannel = openServerChannel(socketAddress)) {
+      serverChannel.bind(socketAddress);
+      System.err.println("ninal server listening on " + address);
+      while(!Thread.currentThread().isInterrupted()) {
+        final SocketChannel channel = serverChannel.accept();
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try(SocketChannel client = channel) {
+              handle(client);
+            } catch(IOException | RuntimeException e) {  // the client is gone
+              System.err.println("request failed: " + e.getMessage());
+            } finally {
+              if (Profiler.isEnabled()) {
+                Profiler.endTask();
+              }
+            }
+          }
+        });
+      }
+    } finally {
+      executor.shutdownNow();
+      if (socketFile != null) {
+        Files.deleteIfExists(socketFile);
+      }
+    }
+  }
+  
+  void handle(SocketChannel channel) throws IOException {
+    byte[] script = readAll(channel);
+    Output output = new Output(new FrameChannel(channel));
+    try {
+      engine.eval(script, output, budget.renew());
+    } catch(RuntimeException e) {  // a parsing error, an execution error or a budget exceeded
+      output.flush();
+      writeFrame(channel, FRAME_ERROR, StandardCharsets.UTF_8.encode(String.valueOf(e.getMessage())));
+      return;
+    }
+    writeFrame(channel, FRAME_END, ByteBuffer.allocate(0));
+  }
+}
@@ -0,0 +1,159 @@
+package fr.umlv.ninal;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import fr.umlv.ninal.interpreter.Budget;
+import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.lang.List;
+import fr.umlv.ninal.parser.Parser;
+
+/** Evaluates a script then evaluates it again each time the file changes,
+ *  only the top-level forms that are new or modified are evaluated again.
+ *
+ *  The forms are compared by content (the hash code and equals of List),
+ *  so a function that is not modified keeps its call target and its compiled code,
+ *  a function that is modified replaces the old one in the interpreter and the call sites
+ *  bound to the old one bind again.
+ *  The top-level expressions that are not definitions are the entry points of the script,
+ *  they are evaluated again if they are modified or if a definition is modified.
+ *  If a form fails, the forms after it are not evaluated and this form and the following ones
+ *  are evaluated again at the next modification.
+ *  A form removed from the script is not undefined.
+ *
+ *  Like {@link Interpreter#interpret(byte[], Budget)}, each evaluation of the script has the limits
+ *  of the budget, the warmups of the interpreter are evaluated before the first entry point
+ *  and the compilation report is printed at the end if it is enabled.
+ */
+public class ScriptWatcher {
+  private final Interpreter interpreter;
+  private final Path path;
+  private final Budget budget;
+  private HashMap<List, Integer> evaluatedForms = new HashMap<>();
+  
+  public ScriptWatcher(Interpreter interpreter, Path path) {
+    this(interpreter, path, Budget.unlimited());
+  }
+  
+  /** Creates a watcher.
+   * @param interpreter the interpreter that evaluates the forms.
+   * @param path the path of the script.
+   * @param budget the limits of each evaluation of the script.
+   */
+  public ScriptWatcher(Interpreter interpreter, Path path, Budget budget) {
+    this.interpreter = interpreter;
+    this.path = path.toAbsolutePath();
+    this.budget = budget;
+  }
+  
+  private static void add(HashMap<List, Integer> forms, List form) {
+    Integer count = forms.get(form);
+    forms.put(form, (count == null)? 1: count + 1);
+  }
+  
+  /** Evaluates the forms of the script that are not already evaluated.
+   * @throws IOException if the script can not be read.
+   */
+  public void update() throws IOException {
+    ArrayList<List> forms = new ArrayList<>();
+    Parser parser = new Parser(Files.readAllBytes(path), true);
+    while(!parser.end()) {
+      forms.add(parser.parseList());
+    }
+    
+    // forms are counted because the same form can appear several times
+    HashMap<List, Integer> oldForms = new HashMap<>(evaluatedForms);
+    boolean[] modified = new boolean[forms.size()];
+    boolean definitionModified = false;
+    for(int i = 0; i < forms.size(); i++) {
+      List form = forms.get(i);
+      Integer oldCount = oldForms.get(form);
+      if (oldCount == null) {
+        modified[i] = true;
+        definitionModified |= Interpreter.isTopLevelDefinition(form);
+      } else if (oldCount == 1) {
+        oldForms.remove(form);
+      } else {
+        oldForms.put(form, oldCount - 1);
+      }
+    }
+    
+    // a form is committed once evaluated, so if a form fails,
+    // it and the following ones are seen as modified by the next update
+    HashMap<List, Integer> committedForms = new HashMap<>();
+    Budget budget = this.budget.renew();
+    boolean warmupDone = false;
+    try {
+      for(int i = 0; i < forms.size(); i++) {
+        List form = forms.get(i);
+        boolean definition = Interpreter.isTopLevelDefinition(form);
+        if (modified[i] || (definitionModified && !definition)) {
+          if (!warmupDone && !definition) {
+            interpreter.warmup(budget);
+            warmupDone = true;
+          }
+          interpreter.eval(form, budget);
+        }
+        add(committedForms, form);
+      }
+    } finally {
+      evaluatedForms = committedForms;
+    }
+    
+    if (interpreter.isCompilationReport()) {
+      interpreter.printCompilationReport(System.out);
+    }
+  }
+  
+  /** Evaluates the script, then waits for the modifications of the script
+   *  and evaluates the modified forms, until the current thread is interrupted.
+   * @throws IOException if the script can not be read or watched.
+   */
+  public void watch() throws IOException {
+    try {
+      update();
+    } catch(RuntimeException e) {
+      System.err.println(e.getMessage());
+    }
+    
+    Path directory = path.getParent();
+    Path fileName = path.getFileName();
+    try(WatchService watchService = FileSystems.getDefault().newWatchService()) {
+      directory.register(watchService, ENTRY_MODIFY, ENTRY_CREATE);
+      for(;;) {
+        WatchKey key;
+        try {
+          key = watchService.take();
+          Thread.sleep(50);  // an editor may write the file several times
+        } catch (InterruptedException e) {
+          return;
+        }
+        boolean changed = false;
+        for(WatchEvent<?> event: key.pollEvents()) {
+          if (fileName.equals(event.context())) {
+            changed = true;
+          }
+        }
+        key.reset();
+        if (!changed) {
+          continue;
+        }
+        try {
+          update();
+        } catch(RuntimeException e) {  // a parsing error or an execution error
+          System.err.println(e.getMessage());
+        }
+      }
+    }
+  }
+}
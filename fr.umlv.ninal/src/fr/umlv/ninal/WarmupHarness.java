@@ -0,0 +1,212 @@
+package fr.umlv.ninal;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.interpreter.Output;
+import fr.umlv.ninal.interpreter.Telemetry;
+import fr.umlv.ninal.lang.List;
+import fr.umlv.ninal.parser.Parser;
+
+/** Measures how long scripts take to reach their peak speed.
+ *
+ *  The definitions of a script (def, eager and top-level var) are evaluated once,
+ *  then the other top-level forms, or the entry point given with --entry, are evaluated
+ *  repeatedly in the same interpreter, so the functions keep their specializations
+ *  and their compiled code. The printed values are discarded.
+ *
+ *  The steady state starts at the first iteration after the last type transition
+ *  whose median with the next {@value #WINDOW} iterations is within 10% of the median
+ *  of the second half of the run.
+ *  The summary is printed as CSV on the standard output,
+ *  the time of each iteration can be written as CSV with --curve.
+ */
+public class WarmupHarness {
+  private static final int WINDOW = 5;
+  
+  private static void usage() {
+    System.err.println("usage: warmup-harness [options] script.ninal...\n" +
+        "  --iterations=count         number of iterations of each script (default 200)\n" +
+        "  --entry=expression         expression evaluated at each iteration instead of\n" +
+        "                             the top-level forms that are not definitions\n" +
+        "  --curve=path               write the time of each iteration of each script as CSV");
+    System.exit(1);
+  }
+  
+  static final class Run {
+    final String script;
+    final long[] times;
+    final long[] transitions;
+    final long[] invalidations;
+    
+    Run(String script, int iterations) {
+      this.script = script;
+      this.times = new long[iterations];
+      this.transitions = new long[iterations];
+      this.invalidations = new long[iterations];
+    }
+    
+    private static long percentile(long[] sorted, double percentile) {
+      int index = (int)Math.ceil(percentile * sorted.length) - 1;
+      return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
+    private static long median(long[] times, int from, int to) {
+      long[] sorted = Arrays.copyOfRange(times, from, to);
+      Arrays.sort(sorted);
+      return percentile(sorted, 0.5);
+    }
+    
+    int steadyStateIteration() {
+      int iterations = times.length;
+      long reference = median(times, iterations / 2, iterations);
+      int lastTransition = -1;
+      for(int i = 0; i < iterations; i++) {
+        if (transitions[i] != 0) {
+          lastTransition = i;
+        }
+      }
+      for(int i = lastTransition + 1; i < iterations; i++) {
+        if (median(times, i, Math.min(iterations, i + WINDOW)) <= reference * 1.1) {
+          return i;
+        }
+      }
+      return iterations - 1;
+    }
+    
+    void printSummary(PrintStream out) {
+      int steadyState = steadyStateIteration();
+      long timeToSteadyState = 0;
+      for(int i = 0; i < steadyState; i++) {
+        timeToSteadyState += times[i];
+      }
+      long[] sorted = Arrays.copyOfRange(times, steadyState, times.length);
+      Arrays.sort(sorted);
+      long totalTransitions = 0;
+      long totalInvalidations = 0;
+      for(int i = 0; i < times.length; i++) {
+        totalTransitions += transitions[i];
+        totalInvalidations += invalidations[i];
+      }
+      out.printf("%s,%d,%d,%.3f,%.3f,%.3f,%d,%d%n",
+          script, times.length, steadyState, timeToSteadyState / 1e6,
+          percentile(sorted, 0.5) / 1e3, percentile(sorted, 0.99) / 1e3,
+          totalTransitions, totalInvalidations);
+    }
+    
+    void printCurve(PrintStream out) {
+      for(int i = 0; i < times.length; i++) {
+        out.println(script + ',' + i + ',' + times[i] + ',' + transitions[i] + ',' + invalidations[i]);
+      }
+    }
+  }
+  
+  static Run run(Path script, int iterations, String entry) throws IOException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setOutput(new Output(new WritableByteChannel() {  // discard the printed values
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+      @Override
+      public void close() {
+        // do nothing
+      }
+      @Override
+      public int write(ByteBuffer buffer) {
+        int remaining = buffer.remaining();
+        buffer.position(buffer.limit());
+        return remaining;
+      }
+    }));
+    
+    ArrayList<Runnable> forms = new ArrayList<>();
+    Parser parser = new Parser(Files.readAllBytes(script), true);
+    while(!parser.end()) {
+      List list = parser.parseList();
+      if (entry != null || Interpreter.isTopLevelDefinition(list)) {
+        interpreter.prepare(list).run();
+      } else {
+        forms.add(interpreter.prepare(list));
+      }
+    }
+    if (entry != null) {
+      forms.add(interpreter.prepare(new Parser(entry.getBytes(StandardCharsets.UTF_8)).parseList()));
+    }
+    
+    Telemetry telemetry = interpreter.getTelemetry();
+    Run run = new Run(script.toString(), iterations);
+    for(int i = 0; i < iterations; i++) {
+      long transitions = telemetry.getTypeTransitions();
+      long invalidations = telemetry.getInvalidations();
+      long start = System.nanoTime();
+      for(Runnable form: forms) {
+        form.run();
+      }
+      run.times[i] = System.nanoTime() - start;
+      run.transitions[i] = telemetry.getTypeTransitions() - transitions;
+      run.invalidations[i] = telemetry.getInvalidations() - invalidations;
+    }
+    return run;
+  }
+  
+  public static void main(String[] args) throws IOException {
+    int iterations = 200;
+    String entry = null;
+    Path curve = null;
+    ArrayList<Path> scripts = new ArrayList<>();
+    for(String arg: args) {
+      if (arg.startsWith("--iterations=")) {
+        iterations = Integer.parseInt(arg.substring("--iterations=".length()));
+        continue;
+      }
+      if (arg.startsWith("--entry=")) {
+        entry = arg.substring("--entry=".length());
+        continue;
+      }
+      if (arg.startsWith("--curve=")) {
+        curve = Paths.get(arg.substring("--curve=".length()));
+        continue;
+      }
+      if (arg.startsWith("--")) {
+        usage();
+      }
+      scripts.add(Paths.get(arg));
+    }
+    if (scripts.isEmpty() || iterations <= 0) {
+      usage();
+    }
+    
+    ArrayList<Run> runs = new ArrayList<>();
+    System.out.println("script,iterations,steady_state_iteration,time_to_steady_state_ms,p50_us,p99_us,transitions,invalidations");
+    for(Path script: scripts) {
+      Run run;
+      try {
+        run = run(script, iterations, entry);
+      } catch(RuntimeException e) {
+        System.err.println(script + ": " + e.getMessage());
+        continue;
+      }
+      run.printSummary(System.out);
+      runs.add(run);
+    }
+    
+    if (curve != null) {
+      try(PrintStream out = new PrintStream(Files.newOutputStream(curve), false, "UTF-8")) {
+        out.println("script,iteration,time_ns,transitions,invalidations");
+        for(Run run: runs) {
+          run.printCurve(out);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package fr.umlv.ninal.interpreter;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+import com.oracle.truffle.api.nodes.Node;
+
+/** Tracks the allocations done by the nodes of the AST.
+ *
+ *  The tracking is enabled by the system property {@code ninal.allocations},
+ *  the flag is a static final field so when the tracking is disabled
+ *  the tests in the nodes are removed by the compiler.
+ *
+ *  The AST does not keep the position of the source code, an allocation site is
+ *  a node identified by the function it belongs to and its path from the root node.
+ *  The sizes are estimated for a 64 bits VM with compressed pointers.
+ */
+public final class Allocations {
+  static final boolean ENABLED = Boolean.getBoolean("ninal.allocations");
+  
+  static final String BOXING = "boxing";
+  static final String ARGUMENTS = "arguments";
+  static final String LIST = "list";
+  static final String UNEXPECTED_RESULT = "unexpected result";
+  
+  static final int INTEGER_SIZE = 16;
+  static final int UNEXPECTED_RESULT_SIZE = 32;
+  
+  static final class Site {
+    final Node node;
+    final String kind;
+    final AtomicLong count = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    
+    Site(Node node, String kind) {
+      this.node = node;
+      this.kind = kind;
+    }
+  }
+  
+  // the nodes do not override equals/hashCode so the keys are compared by identity
+  private static final ConcurrentHashMap<Node, ConcurrentHashMap<String, Site>> SITES = new ConcurrentHashMap<>();
+  
+  private Allocations() {
+    // no instance
+  }
+  
+  /** Returns true if the allocation tracking is enabled.
+   * @return true if the allocation tracking is enabled.
+   */
+  public static boolean isEnabled() {
+    return ENABLED;
+  }
+  
+  /** Size of an array of references.
+   * @param length the length of the array.
+   * @return the size of the array in bytes.
+   */
+  static int arraySize(int length) {
+    return (16 + 4 * length + 7) & ~7;
+  }
+  
+  /** Records a boxing, only the ints outside of the cache of Integer.valueOf allocate.
+   * @param node the node that boxes.
+   * @param value the boxed value.
+   */
+  static void boxInt(Node node, int value) {
+    if (value < -128 || value > 127) {
+      record(node, BOXING, INTEGER_SIZE);
+    }
+  }
+  
+  /** Records an allocation.
+   * @param node the node that allocates.
+   * @param kind the kind of allocation.
+   * @param bytes the estimated size of the allocation.
+   */
+  @SlowPath
+  static void record(Node node, String kind, int bytes) {
+    ConcurrentHashMap<String, Site> kindMap = SITES.get(node);
+    if (kindMap == null) {
+      ConcurrentHashMap<String, Site> newKindMap = new ConcurrentHashMap<>();
+      kindMap = SITES.putIfAbsent(node, newKindMap);
+      if (kindMap == null) {
+        kindMap = newKindMap;
+      }
+    }
+    Site site = kindMap.get(kind);
+    if (site == null) {
+      Site newSite = new Site(node, kind);
+      site = kindMap.putIfAbsent(kind, newSite);
+      if (site == null) {
+        site = newSite;
+      }
+    }
+    site.count.incrementAndGet();
+    site.bytes.addAndGet(bytes);
+  }
+  
+  private static String location(Node node) {
+    StringBuilder path = new StringBuilder();
+    Node current = node;
+    Node parent;
+    while((parent = current.getParent()) != null) {
+      int index = 0;
+      for(Node child: parent.getChildren()) {
+        if (child == current) {
+          break;
+        }
+        index++;
+      }
+      path.insert(0, "/" + current.getClass().getSimpleName() + '[' + index + ']');
+      current = parent;
+    }
+    String function;
+    if (current instanceof Interpreter.FunctionNode) {
+      function = ((Interpreter.FunctionNode)current).symbol.getName();
+    } else if (current instanceof Interpreter.EvalNode) {
+      function = "<top-level>";
+    } else {
+      function = "<detached>";
+    }
+    return function + path;
+  }
+  
+  /** Prints the allocation sites that allocate the most bytes.
+   * @param out the stream to print to.
+   * @param limit the maximum number of sites.
+   */
+  public static void printReport(PrintStream out, int limit) {
+    ArrayList<Site> sites = new ArrayList<>();
+    for(Map<String, Site> kindMap: SITES.values()) {
+      sites.addAll(kindMap.values());
+    }
+    Collections.sort(sites, new Comparator<Site>() {
+      @Override
+      public int compare(Site site1, Site site2) {
+        return Long.compare(site2.bytes.get(), site1.bytes.get());
+      }
+    });
+    out.printf("%12s %14s  %-18s %s%n", "count", "bytes", "kind", "site");
+    for(Site site: sites.subList(0, Math.min(limit, sites.size()))) {
+      out.printf("%12d %14d  %-18s %s%n", site.count.get(), site.bytes.get(), site.kind, location(site.node));
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package fr.umlv.ninal.interpreter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+
+/** Limits of one execution of a script: the number of loop iterations and calls,
+ *  the wall time, the depth of the calls and the number of elements of the
+ *  allocated arrays, lists, maps, closures and strings.
+ *  When a limit is reached, the execution is aborted with a {@link BudgetExceededException}.
+ *  
+ *  A budget is passed with the arguments of the calls so the nodes check it with
+ *  a decrement and a branch, the iterations and the allocations are given to the
+ *  fast path by chunks and the wall time is only checked when a new chunk is needed.
+ *  A task created by spawn has its own budget, a {@link #fork() fork} of the budget
+ *  of its creator, with its own counters and its own depth, the chunks are taken
+ *  atomically from the iterations and the allocations shared by all the forks.
+ *  
+ * @see Interpreter#interpret(byte[], Budget)
+ */
+public final class Budget {
+  private static final int CHUNK = 1 << 14;
+  
+  /** The budget of the calls from Java, see {@link Interpreter.Function#invoke(Object...)}.
+   *  It is shared by all threads, its counters are not synchronized but as
+   *  there is no limit, a lost update can not abort an execution.
+   */
+  static final Budget UNLIMITED = unlimited();
+  
+  /** The limits and the remaining iterations and allocations of an execution,
+   *  shared by the budget of the execution and its forks.
+   */
+  private static final class Limits {
+    final long maxIterations;
+    final long maxNanos;
+    final int maxDepth;
+    final long maxAllocations;
+    final long start;
+    final AtomicLong iterations;   // not yet given to a budget
+    final AtomicLong allocations;  // not yet given to a budget
+    
+    Limits(long maxIterations, long maxNanos, int maxDepth, long maxAllocations) {
+      this.maxIterations = maxIterations;
+      this.maxNanos = maxNanos;
+      this.maxDepth = maxDepth;
+      this.maxAllocations = maxAllocations;
+      this.start = System.nanoTime();
+      this.iterations = new AtomicLong(maxIterations);
+      this.allocations = new AtomicLong(maxAllocations);
+    }
+  }
+  
+  private final Limits limits;
+  private final int maxDepth;
+  private int ticks;
+  private int depth;
+  private long allocations;  // given by the limits and not yet used
+  
+  /** Creates a budget, the wall time is measured from the creation of the budget.
+   * @param maxIterations maximum number of loop iterations and calls.
+   * @param maxMillis maximum wall time in milliseconds.
+   * @param maxDepth maximum depth of calls.
+   * @param maxAllocations maximum number of allocated elements.
+   */
+  public Budget(long maxIterations, long maxMillis, int maxDepth, long maxAllocations) {
+    this(limits(maxIterations, maxMillis, maxDepth, maxAllocations));
+  }
+  
+  private Budget(Limits limits) {
+    this.limits = limits;
+    this.maxDepth = limits.maxDepth;
+  }
+  
+  private static Limits limits(long maxIterations, long maxMillis, int maxDepth, long maxAllocations) {
+    if (maxIterations < 0 || maxMillis < 0 || maxDepth < 0 || maxAllocations < 0) {
+      throw new IllegalArgumentException("a limit can not be negative");
+    }
+    long maxNanos = (maxMillis >= Long.MAX_VALUE / 1000000)? Long.MAX_VALUE: maxMillis * 1000000;
+    return new Limits(maxIterations, maxNanos, maxDepth, maxAllocations);
+  }
+  
+  /** Creates a budget without limit.
+   * @return a new budget without limit.
+   */
+  public static Budget unlimited() {
+    return new Budget(Long.MAX_VALUE, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+  }
+  
+  /** Creates a budget with the same limits, the wall time is measured from now.
+   * @return a new budget.
+   */
+  public Budget renew() {
+    Limits limits = this.limits;
+    long maxMillis = (limits.maxNanos == Long.MAX_VALUE)? Long.MAX_VALUE: limits.maxNanos / 1000000;
+    return new Budget(limits.maxIterations, maxMillis, limits.maxDepth, limits.maxAllocations);
+  }
+  
+  /** Creates the budget of a task spawned by the current execution,
+   *  the limits are shared but the counters and the depth are not.
+   * @return a new budget sharing the limits of this budget.
+   */
+  Budget fork() {
+    return new Budget(limits);
+  }
+  
+  /** Called at each loop iteration and each call.
+   */
+  void tick() {
+    if (--ticks < 0) {
+      refill();
+    }
+  }
+  
+  @SlowPath
+  private void refill() {
+    Limits limits = this.limits;
+    if (limits.maxNanos != Long.MAX_VALUE && System.nanoTime() - limits.start > limits.maxNanos) {
+      ticks = 0;
+      throw new BudgetExceededException("time limit of " + limits.maxNanos / 1000000 + " ms exceeded");
+    }
+    long chunk = take(limits.iterations, CHUNK);
+    if (chunk == 0) {
+      ticks = 0;
+      throw new BudgetExceededException("iteration limit of " + limits.maxIterations + " exceeded");
+    }
+    ticks = (int)chunk - 1;
+  }
+  
+  // takes at most amount from remaining, returns the amount taken
+  private static long take(AtomicLong remaining, long amount) {
+    for(;;) {
+      long current = remaining.get();
+      long taken = Math.min(amount, current);
+      if (remaining.compareAndSet(current, current - taken)) {
+        return taken;
+      }
+    }
+  }
+  
+  void enter() {
+    if (++depth > maxDepth) {
+      depthExceeded();
+    }
+  }
+  
+  void exit() {
+    depth--;
+  }
+  
+  @SlowPath
+  private void depthExceeded() {
+    depth--;
+    throw new BudgetExceededException("call depth limit of " + maxDepth + " exceeded");
+  }
+  
+  /** Called when an array, a list, a map entry, a closure or a string is allocated.
+   * @param elements the number of elements allocated.
+   */
+  void allocate(long elements) {
+    if ((allocations -= elements) < 0) {
+      refillAllocations();
+    }
+  }
+  
+  @SlowPath
+  private void refillAllocations() {
+    long missing = -allocations;
+    long chunk = take(limits.allocations, Math.max(CHUNK, missing));
+    if (chunk < missing) {
+      allocations = 0;
+      throw new BudgetExceededException("allocation limit of " + limits.maxAllocations + " elements exceeded");
+    }
+    allocations = chunk - missing;
+  }
+}
@@ -0,0 +1,11 @@
+package fr.umlv.ninal.interpreter;
+
+/** Thrown when an execution exceeds one of the limits of its {@link Budget}.
+ */
+public class BudgetExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public BudgetExceededException(String message) {
+    super(message);
+  }
+}
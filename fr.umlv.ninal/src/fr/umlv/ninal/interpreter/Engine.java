@@ -0,0 +1,107 @@
+package fr.umlv.ninal.interpreter;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import fr.umlv.ninal.lang.List;
+import fr.umlv.ninal.parser.Parser;
+
+/** An engine shares the parsed sources and the compiled code between
+ *  isolated execution contexts.
+ *
+ *  A context is a fork of the root interpreter of the engine,
+ *  it has its own definitions and its own global variables.
+ *  The sources are parsed once and cached by content, the ASTs of their top-level
+ *  forms and of the functions they define are shared by all the contexts,
+ *  so once a source has been evaluated by a context, a new context only
+ *  pays for the copy of the globals of the root interpreter, and of the arrays,
+ *  maps and channels they reference.
+ *
+ *  The engine keeps the most recently used sources, {@link #DEFAULT_SOURCE_CACHE_SIZE}
+ *  by default, a source evicted from the cache is parsed again the next time.
+ *  The function definitions shared by the contexts are bounded the same way
+ *  by the root interpreter.
+ *
+ * @see Interpreter#fork(Output)
+ */
+public final class Engine {
+  /** The number of sources kept by an engine if the size is not specified. */
+  public static final int DEFAULT_SOURCE_CACHE_SIZE = 256;
+  
+  private final Interpreter interpreter;
+  private final LruCache<ByteBuffer, Source> sourceCache;
+  
+  /** Creates an engine with a new root interpreter.
+   */
+  public Engine() {
+    this(new Interpreter());
+  }
+  
+  /** Creates an engine, the functions and the globals of the root interpreter
+   *  are seen by all the contexts.
+   * @param interpreter the root interpreter.
+   */
+  public Engine(Interpreter interpreter) {
+    this(interpreter, DEFAULT_SOURCE_CACHE_SIZE);
+  }
+  
+  /** Creates an engine that keeps at most sourceCacheSize sources.
+   * @param interpreter the root interpreter.
+   * @param sourceCacheSize the maximum number of parsed sources kept by the engine.
+   * @throws IllegalArgumentException if sourceCacheSize is not positive.
+   */
+  public Engine(Interpreter interpreter, int sourceCacheSize) {
+    this.interpreter = interpreter;
+    this.sourceCache = new LruCache<>(sourceCacheSize);
+  }
+  
+  /** Returns the root interpreter of the engine.
+   * @return the root interpreter of the engine.
+   */
+  public Interpreter getInterpreter() {
+    return interpreter;
+  }
+  
+  /** Creates a new execution context.
+   * @param output the destination of print of the context.
+   * @return a new context.
+   */
+  public Interpreter createContext(Output output) {
+    return interpreter.fork(output);
+  }
+  
+  /** Returns the source with that content, the source is parsed only
+   *  the first time, or again if it was evicted from the cache.
+   * @param data the source code.
+   * @return a parsed source.
+   */
+  public Source getSource(byte[] data) {
+    ByteBuffer key = ByteBuffer.wrap(data);
+    Source source = sourceCache.get(key);
+    if (source != null) {
+      return source;
+    }
+    ArrayList<List> forms = new ArrayList<>();
+    byte[] copy = data.clone();  // the data can be modified by the caller
+    Parser parser = new Parser(copy, true);
+    while(!parser.end()) {
+      forms.add(parser.parseList());
+    }
+    source = new Source(forms.toArray(new List[forms.size()]));
+    Source existing = sourceCache.putIfAbsent(ByteBuffer.wrap(copy), source);
+    return (existing != null)? existing: source;
+  }
+  
+  /** Evaluates a source in a new context.
+   * @param data the source code.
+   * @param output the destination of print.
+   * @param budget the limits of the execution.
+   * @return the context, the functions defined by the source can be called using it.
+   * @throws BudgetExceededException if a limit is reached.
+   */
+  public Interpreter eval(byte[] data, Output output, Budget budget) {
+    Interpreter context = createContext(output);
+    context.eval(getSource(data), budget);
+    return context;
+  }
+}
@@ -1,10 +1,26 @@
 package fr.umlv.ninal.interpreter;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import com.oracle.truffle.api.Arguments;
 import com.oracle.truffle.api.Assumption;
@@ -15,20 +31,28 @@ import com.oracle.truffle.api.CompilerDirectives.SlowPath;
 import com.oracle.truffle.api.ExactMath;
 import com.oracle.truffle.api.Truffle;
 import com.oracle.truffle.api.TruffleRuntime;
+import com.oracle.truffle.api.frame.Frame;
 import com.oracle.truffle.api.frame.FrameDescriptor;
 import com.oracle.truffle.api.frame.FrameSlot;
 import com.oracle.truffle.api.frame.FrameSlotKind;
 import com.oracle.truffle.api.frame.FrameSlotTypeException;
 import com.oracle.truffle.api.frame.FrameUtil;
+import com.oracle.truffle.api.frame.MaterializedFrame;
 import com.oracle.truffle.api.frame.VirtualFrame;
 import com.oracle.truffle.api.nodes.ExplodeLoop;
 import com.oracle.truffle.api.nodes.InvalidAssumptionException;
-import com.oracle.truffle.api.nodes.NodeUtil;
 import com.oracle.truffle.api.nodes.UnexpectedResultException;
 
+import fr.umlv.ninal.lang.Array;
+import fr.umlv.ninal.lang.AsciiString;
+import fr.umlv.ninal.lang.Channel;
 import fr.umlv.ninal.lang.List;
+import fr.umlv.ninal.lang.Map;
+import fr.umlv.ninal.lang.Rope;
 import fr.umlv.ninal.lang.Symbol;
+import fr.umlv.ninal.lang.Task;
 import fr.umlv.ninal.parser.Parser;
+import fr.umlv.ninal.parser.UnparsedList;
 
 public class Interpreter {
   static final int TYPE_STATE_UNINITIALIZED = 1;
@@ -36,41 +60,108 @@ public class Interpreter {
   static final int TYPE_STATE_INT = 3;
   static final int TYPE_STATE_OBJECT = 4;
   
-  static boolean isTypeState(Assumption typeStateStable, int typeState, int state) {
+  /** A type state and the assumption that it is stable.
+   *  A TypeState is immutable so when a node changes its type state,
+   *  other threads see either the old pair or the new one.
+   */
+  static final class TypeState {
+    final int state;
+    final Assumption stable;
+    
+    TypeState(int state) {
+      this.state = state;
+      this.stable = Truffle.getRuntime().createAssumption();
+    }
+  }
+  
+  static boolean isTypeState(TypeState typeState, int state) {
     try {
-      typeStateStable.check();
-      return typeState == state;
+      typeState.stable.check();
+      return typeState.state == state;
     } catch (InvalidAssumptionException e) {
-      System.out.println("assumption invalidation !");
-      return typeState == state;
+      if (Trace.SPECIALIZATION >= Trace.DEBUG) {
+        Trace.log(Trace.Category.SPECIALIZATION, "assumption invalidation !");
+      }
+      return typeState.state == state;
+    }
+  }
+  
+  /* the telemetry and the function of a node are found from the root node,
+   * a node that is not yet adopted is not recorded
+   */
+  @SlowPath
+  static void recordTypeTransition(com.oracle.truffle.api.nodes.Node node, int oldState) {
+    com.oracle.truffle.api.nodes.Node root = node;
+    while(root.getParent() != null) {
+      root = root.getParent();
+    }
+    boolean invalidation = oldState != TYPE_STATE_UNINITIALIZED;
+    String nodeClass = node.getClass().getSimpleName();
+    if (root instanceof FunctionNode) {
+      FunctionNode functionNode = (FunctionNode)root;
+      functionNode.telemetry.typeTransition(nodeClass, functionNode.symbol.getName(), invalidation, functionNode.isExecutedCompiled());
+    } else if (root instanceof EvalNode) {
+      ((EvalNode)root).telemetry.typeTransition(nodeClass, "<top-level>", invalidation, false);
+    }
+  }
+  
+  @SlowPath
+  static void recordUnexpectedResult(com.oracle.truffle.api.nodes.Node node) {
+    com.oracle.truffle.api.nodes.Node root = node;
+    while(root.getParent() != null) {
+      root = root.getParent();
+    }
+    if (root instanceof FunctionNode) {
+      ((FunctionNode)root).telemetry.unexpectedResult();
+    } else if (root instanceof EvalNode) {
+      ((EvalNode)root).telemetry.unexpectedResult();
     }
   }
   
   static abstract class Node extends com.oracle.truffle.api.nodes.Node {
     @CompilationFinal
-    private int typeState;
-    @CompilationFinal
-    private Assumption typeStateStable; 
+    private TypeState typeState;
     
     protected Node(int typeState) {
       CompilerDirectives.transferToInterpreter();
-      this.typeState = typeState;
-      typeStateStable = Truffle.getRuntime().createAssumption();
+      this.typeState = new TypeState(typeState);
     }
     
     final boolean isTypeState(int state) {
-      return Interpreter.isTypeState(typeStateStable, typeState, state);
+      return Interpreter.isTypeState(typeState, state);
     }
     
     final void setTypeState(int state) {
-      if (Interpreter.isTypeState(typeStateStable, typeState, state)) {
+      if (Interpreter.isTypeState(typeState, state)) {
         return;
       }
       CompilerDirectives.transferToInterpreter();
-      typeState = state;
-      typeStateStable.invalidate();
-      typeStateStable = Truffle.getRuntime().createAssumption();
-      System.out.println(this  + " -> " + state);
+      transitionTypeState(state);
+    }
+    
+    private synchronized void transitionTypeState(int state) {
+      TypeState typeState = this.typeState;
+      if (typeState.state == state) {  // already done by another thread
+        return;
+      }
+      this.typeState = new TypeState(state);
+      typeState.stable.invalidate();
+      if (Trace.SPECIALIZATION >= Trace.INFO) {
+        Trace.log(Trace.Category.SPECIALIZATION, this  + " -> " + state);
+      }
+      recordTypeTransition(this, typeState.state);
+    }
+    
+    /** Creates the exception thrown by a specialized eval when the result has an unexpected type.
+     * @param result the result of the evaluation.
+     * @return a new UnexpectedResultException.
+     */
+    final UnexpectedResultException unexpectedResult(Object result) {
+      recordUnexpectedResult(this);
+      if (Allocations.ENABLED) {
+        Allocations.record(this, Allocations.UNEXPECTED_RESULT, Allocations.UNEXPECTED_RESULT_SIZE);
+      }
+      return new UnexpectedResultException(result);
     }
     
     Object eval(VirtualFrame frame) {
@@ -80,12 +171,17 @@ public class Interpreter {
         return result;
       }
       if (isTypeState(TYPE_STATE_INT)) {
+        int value;
         try {
-          return evalInt(frame);
+          value = evalInt(frame);
         } catch(UnexpectedResultException e) {
           setTypeState(TYPE_STATE_OBJECT);
           return e.getResult();
         }
+        if (Allocations.ENABLED) {
+          Allocations.boxInt(this, value);
+        }
+        return value;
       }
       if (isTypeState(TYPE_STATE_BOOLEAN)) {
         try {
@@ -125,6 +221,36 @@ public class Interpreter {
     }
   }
   
+  /** A node that computes its value as an object,
+   *  the specialized versions of eval unbox that value.
+   */
+  static abstract class GenericNode extends Node {
+    GenericNode(int typeState) {
+      super(typeState);
+    }
+    
+    @Override
+    abstract Object evalObject(VirtualFrame frame);
+    
+    @Override
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      Object result = evalObject(frame);
+      if (result instanceof Integer) {
+        return (Integer)result;
+      }
+      throw unexpectedResult(result);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      Object result = evalObject(frame);
+      if (result instanceof Boolean) {
+        return (Boolean)result;
+      }
+      throw unexpectedResult(result);
+    }
+  }
+  
   static class ConstNode extends Node {
     private final Object constant;
     
@@ -160,15 +286,21 @@ public class Interpreter {
       for(int i=0; i<values.length; i++) {
         values[i] = valueNodes[i].evalObject(frame);
       }
+      if (Allocations.ENABLED) {
+        Allocations.record(this, Allocations.LIST, Allocations.arraySize(values.length) + 16);
+      }
+      budget(frame).allocate(values.length);
       return List.of(values);
     }
   }
     
   static class EvalNode extends com.oracle.truffle.api.nodes.RootNode {
+    final Telemetry telemetry;
     @Child
     private final Node bodyNode;
 
-    EvalNode(Node bodyNode) {
+    EvalNode(Telemetry telemetry, Node bodyNode) {
+      this.telemetry = telemetry;
       this.bodyNode = adoptChild(bodyNode);
     }
     
@@ -177,33 +309,82 @@ public class Interpreter {
       return bodyNode.eval(frame);
     }
     
-    // no type specialization, EvalNode.execute is called once !
+    // no type specialization, EvalNode.execute is called once
+    // apart for the forms of Interpreter.prepare(List)
   }
   
   static class FunctionNode extends com.oracle.truffle.api.nodes.RootNode {
-    @SuppressWarnings("unused")   // used for debugging when printing the node tree
-    private final Symbol symbol;
+    final Telemetry telemetry;
+    final Symbol symbol;
     @Children
     private final ParameterNode[] parameterNodes;
     @Child
     private final Node bodyNode;
     
-    FunctionNode(Symbol symbol, ParameterNode[] parameterNodes, Node bodyNode) {
+    private boolean executedCompiled;  // only used to report compilation
+    
+    FunctionNode(Telemetry telemetry, Symbol symbol, ParameterNode[] parameterNodes, Node bodyNode) {
+      this.telemetry = telemetry;
       this.symbol = symbol;
       this.parameterNodes = adoptChildren(parameterNodes);
       this.bodyNode = adoptChild(bodyNode);
     }
     
+    boolean isExecutedCompiled() {
+      return executedCompiled;
+    }
+    
     @Override
-    @ExplodeLoop
     public Object execute(VirtualFrame frame) {
-      ArrayArguments arguments = frame.getArguments(ArrayArguments.class);
-      if (parameterNodes.length != arguments.size()) {
-        throw invalidNumberOfArgument();
+      if (!CompilerDirectives.inInterpreter() && !executedCompiled) {
+        executedCompiled = true;
+        telemetry.callTargetCompiled();
+      }
+      if (Trace.CALLS >= Trace.DEBUG) {
+        Trace.log(Trace.Category.CALLS, "call " + symbol);
+      }
+      if (Profiler.MODE != Profiler.OFF) {
+        Profiler.enter(symbol);
+        try {
+          return executeBody(frame);
+        } finally {
+          Profiler.exit();
+        }
+      }
+      return executeBody(frame);
+    }
+    
+    private Object executeBody(VirtualFrame frame) {
+      Budget budget = budget(frame);
+      budget.tick();
+      budget.enter();
+      try {
+        return executeParametersAndBody(frame);
+      } finally {
+        budget.exit();
+      }
+    }
+    
+    @ExplodeLoop
+    private Object executeParametersAndBody(VirtualFrame frame) {
+      Arguments arguments = frame.getArguments(Arguments.class);
+      if (arguments instanceof IntArrayArguments) {  // see Function.invokeInt and Closure.callInt
+        IntArrayArguments intArguments = (IntArrayArguments)arguments;
+        if (parameterNodes.length != intArguments.size()) {
+          throw invalidNumberOfArgument();
+        }
+        for(int i = 0; i < parameterNodes.length; i++) {
+          parameterNodes[i].setInt(frame, intArguments.get(i));
+        }
+        return bodyNode.eval(frame);
       }
       
+      ArrayArguments arrayArguments = (ArrayArguments)arguments;
+      if (parameterNodes.length != arrayArguments.size()) {
+        throw invalidNumberOfArgument();
+      }
       for(int i = 0; i < parameterNodes.length; i++) {
-        parameterNodes[i].setObject(frame, arguments.get(i));
+        parameterNodes[i].setObject(frame, arrayArguments.get(i));
       }
       return bodyNode.eval(frame);
     }
@@ -211,20 +392,18 @@ public class Interpreter {
   
   
   
-  /*non-static*/ class DefNode extends Node {
+  static class DefNode extends Node {
     private final Symbol name;
-    private final FrameDescriptor functionFrameDescriptor;
-    @Children
-    private final ParameterNode[] parameterNodes;
-    @Child
-    private final Node bodyNode;
+    private final List parameters;
+    private final Object body;
+    private final boolean eager;
     
-    DefNode(Symbol name, FrameDescriptor functionFrameDescriptor, ParameterNode[] parameterNodes, Node bodyNode) {
+    DefNode(Symbol name, List parameters, Object body, boolean eager) {
       super(TYPE_STATE_OBJECT);
       this.name = name;
-      this.functionFrameDescriptor = functionFrameDescriptor;
-      this.parameterNodes = adoptChildren(parameterNodes);
-      this.bodyNode = adoptChild(bodyNode);
+      this.parameters = parameters;
+      this.body = body;
+      this.eager = eager;
     }
 
     public Symbol getName() {
@@ -233,30 +412,231 @@ public class Interpreter {
     
     @Override
     Object evalObject(VirtualFrame frame) {
-      FunctionNode functionNode = new FunctionNode(name, parameterNodes, bodyNode);
-      NodeUtil.printTree(System.out, functionNode);
-      CallTarget callTarget = Truffle.getRuntime().createCallTarget(functionNode, functionFrameDescriptor);
-      callTargetMap.put(name, callTarget);
-      
+      context(frame).define(name, parameters, body, eager);
       return List.empty();
     }
   }
   
-  /*non-static*/ class FunCallNode extends Node {
+  /** A function defined by def, the AST of its body and its call target are created
+   *  lazily when the function is called the first time or when the def is eager.
+   *  
+   *  A function can be called from Java, the methods {@link #invokeInt(int...)}
+   *  and {@link #invokeBoolean(int...)} pass the arguments without boxing them.
+   *  A function can be called by several threads concurrently,
+   *  its call target is created only once.
+   *  
+   *  In a fork, a function of the parent interpreter or a function defined
+   *  like a function of the code cache is seen through a function that shares
+   *  its call target, so the fork can redefine it without invalidating
+   *  the call sites of the other interpreters.
+   *  
+   * @see Interpreter#lookup(Symbol)
+   * @see Interpreter#fork(Output)
+   */
+  public final class Function {
     private final Symbol name;
-    @Children
-    private final Node[] argumentNodes;
+    private final List parameters;
+    private final Function shared;    // function of the parent that owns the call target or null
+    private Object body;  // a List or an UnparsedList, null when the call target is created
+    private FunctionNode functionNode;
+    private volatile CallTarget callTarget;
+    private final Assumption notRedefined = Truffle.getRuntime().createAssumption();
+    
+    Function(Symbol name, List parameters, Object body) {
+      this.name = name;
+      this.parameters = parameters;
+      this.shared = null;
+      this.body = body;
+    }
+    
+    Function(Function shared) {
+      this.name = shared.name;
+      this.parameters = shared.parameters;
+      this.shared = (shared.shared == null)? shared: shared.shared;
+      this.body = null;
+    }
+    
+    /* the interpreter the function is defined in, the call sites of an interpreter
+     * only bind to its functions */
+    Interpreter owner() {
+      return Interpreter.this;
+    }
+    
+    /* true if another def with the same name replaced this function,
+     * in compiled code, the check is removed until the function is redefined
+     */
+    boolean isRedefined() {
+      try {
+        notRedefined.check();
+        return false;
+      } catch (InvalidAssumptionException e) {
+        return true;
+      }
+    }
+    
+    void redefined() {
+      notRedefined.invalidate();
+    }
+    
+    CallTarget getCallTarget() {
+      if (shared != null) {
+        return shared.getCallTarget();
+      }
+      CallTarget callTarget = this.callTarget;
+      if (callTarget == null) {
+        callTarget = createCallTarget();
+      }
+      return callTarget;
+    }
     
+    @SlowPath
+    private synchronized CallTarget createCallTarget() {
+      if (callTarget != null) {  // already created by another thread
+        return callTarget;
+      }
+      Scope scope = new Scope(new FrameDescriptor(), null);
+      ParameterNode[] parameterNodes = new ParameterNode[parameters.size()];
+      for(int i = 0; i < parameterNodes.length; i++) {
+        Symbol parameter = (Symbol) parameters.get(i);
+        parameterNodes[i] = new ParameterNode(scope.addSlot(parameter, FrameSlotKind.Object));
+      }
+      Object body = this.body;
+      if (body instanceof UnparsedList) {
+        if (Trace.PARSE >= Trace.INFO) {
+          Trace.log(Trace.Category.PARSE, "parse body of " + name);
+        }
+        body = ((UnparsedList)body).parse();
+      }
+      Node bodyNode = createAST(body, scope);
+      FunctionNode functionNode = new FunctionNode(telemetry, name, parameterNodes, bodyNode);
+      if (Trace.COMPILATION >= Trace.INFO) {
+        Trace.log(Trace.Category.COMPILATION, "create call target " + name);
+      }
+      if (Trace.COMPILATION >= Trace.DEBUG) {
+        Trace.logTree(Trace.Category.COMPILATION, functionNode);
+      }
+      CallTarget callTarget = Truffle.getRuntime().createCallTarget(functionNode, scope.frameDescriptor);
+      telemetry.callTargetCreated();
+      this.functionNode = functionNode;
+      this.callTarget = callTarget;
+      this.body = null;
+      return callTarget;
+    }
+    
+    public Symbol getName() {
+      return name;
+    }
+    
+    /** Calls the function.
+     * @param arguments the arguments of the call.
+     * @return the result of the call.
+     */
+    public Object invoke(Object... arguments) {
+      return getCallTarget().call(null, new ArrayArguments(arguments, Budget.UNLIMITED, globals));
+    }
+    
+    /** Calls a function that takes ints and returns an int.
+     * @param arguments the arguments of the call.
+     * @return the result of the call.
+     */
+    public int invokeInt(int... arguments) {
+      Object result = getCallTarget().call(null, new IntArrayArguments(arguments, null, Budget.UNLIMITED, globals));
+      if (!(result instanceof Integer)) {
+        throw invalidResultType(name, "an int", result);
+      }
+      return (Integer)result;
+    }
+    
+    /** Calls a function that takes ints and returns a boolean.
+     * @param arguments the arguments of the call.
+     * @return the result of the call.
+     */
+    public boolean invokeBoolean(int... arguments) {
+      Object result = getCallTarget().call(null, new IntArrayArguments(arguments, null, Budget.UNLIMITED, globals));
+      if (!(result instanceof Boolean)) {
+        throw invalidResultType(name, "a boolean", result);
+      }
+      return (Boolean)result;
+    }
+    
+    synchronized String getCompilationStatus() {
+      if (shared != null) {
+        return shared.getCompilationStatus() + " (shared)";
+      }
+      if (functionNode == null) {
+        return "no call target";
+      }
+      return functionNode.isExecutedCompiled()? "compiled": "interpreted";
+    }
+  }
+  
+  /** Binds a call site to the function of the current interpreter.
+   *  The call site caches the function of the first interpreter it is executed by,
+   *  if it is executed by a fork or by several interpreters (the ASTs are shared by
+   *  the forks and by the contexts of an engine), the function is read from the function
+   *  table of the interpreter, at the slot of the name of the call site,
+   *  so a shared AST does not keep a fork alive.
+   *  
+   * @see Interpreter#callTarget(int, Symbol)
+   */
+  static final class CallSite {
+    private final Symbol name;
+    private final int slot;
+    @CompilationFinal
+    private Function function;
     @CompilationFinal
     private CallTarget callTarget;
+    @CompilationFinal
+    private boolean polymorphic;
     
-    FunCallNode(Symbol name, Node[] argumentNodes) {
-      super(TYPE_STATE_OBJECT);
+    CallSite(Symbol name, int slot) {
       this.name = name;
+      this.slot = slot;
+    }
+    
+    CallTarget callTarget(Interpreter context) {
+      if (polymorphic) {
+        return context.callTarget(slot, name);
+      }
+      Function function = this.function;
+      CallTarget callTarget = this.callTarget;
+      if (function == null || callTarget == null || function.owner() != context || function.isRedefined()) {
+        // bind lazily, the callee AST is created the first time it is called,
+        // bind again if the function is redefined
+        CompilerDirectives.transferToInterpreter();
+        return bind(context);
+      }
+      return callTarget;
+    }
+    
+    private synchronized CallTarget bind(Interpreter context) {
+      Function function = context.lookupFunction(name);
+      CallTarget callTarget = function.getCallTarget();
+      Function oldFunction = this.function;
+      if (context.isFork() || (oldFunction != null && oldFunction.owner() != context)) {
+        polymorphic = true;
+        this.function = null;
+        this.callTarget = null;
+        if (Trace.CALLS >= Trace.INFO) {
+          Trace.log(Trace.Category.CALLS, "call to " + name + " executed by a fork or several interpreters");
+        }
+        return callTarget;
+      }
+      this.function = function;
+      this.callTarget = callTarget;
+      return callTarget;
+    }
+  }
+  
+  static class FunCallNode extends GenericNode {
+    private final CallSite callSite;
+    @Children
+    private final Node[] argumentNodes;
+    
+    FunCallNode(Symbol name, int slot, Node[] argumentNodes) {
+      super(TYPE_STATE_OBJECT);
+      this.callSite = new CallSite(name, slot);
       this.argumentNodes = adoptChildren(argumentNodes);
-      
-      // try to early bind if possible
-      this.callTarget = callTargetMap.get(name);
     }
 
     @Override
@@ -267,67 +647,202 @@ public class Interpreter {
         arguments[i] = argumentNodes[i].eval(frame);
       }
       
-      //FIXME stupid ahead of time compilation
-      CallTarget callTarget = this.callTarget;
-      if (callTarget != null) {
-        return callTarget.call(frame.pack(), new ArrayArguments(arguments));
+      CallTarget callTarget = callSite.callTarget(context(frame));
+      if (Allocations.ENABLED) {
+        Allocations.record(this, Allocations.ARGUMENTS, Allocations.arraySize(arguments.length) + 16);
+      }
+      return callTarget.call(frame.pack(), new ArrayArguments(arguments, budget(frame), globals(frame)));
+    }
+  }
+  
+  static class SpawnNode extends Node {
+    private final CallSite callSite;
+    @Children
+    private final Node[] argumentNodes;
+    
+    SpawnNode(Symbol name, int slot, Node[] argumentNodes) {
+      super(TYPE_STATE_OBJECT);
+      this.callSite = new CallSite(name, slot);
+      this.argumentNodes = adoptChildren(argumentNodes);
+    }
+
+    @Override
+    @ExplodeLoop
+    Object evalObject(VirtualFrame frame) {
+      Object[] arguments = new Object[argumentNodes.length];
+      for(int i=0; i<argumentNodes.length; i++) {
+        arguments[i] = argumentNodes[i].eval(frame);
       }
       
-      callTarget = callTargetMap.get(name);
-      this.callTarget = callTarget;
-      return callTarget.call(frame.pack(), new ArrayArguments(arguments));
+      Interpreter context = context(frame);
+      CallTarget callTarget = callSite.callTarget(context);
+      return context.spawn(callTarget, new ArrayArguments(arguments, budget(frame).fork(), globals(frame)));
     }
     
     @Override
-    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
-      Object result = evalObject(frame);
-      if (result instanceof Integer) {
-        return (Integer)result;
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class JoinNode extends GenericNode {
+    @Child
+    private final Node taskNode;
+    
+    JoinNode(Node taskNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.taskNode = adoptChild(taskNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Object task = taskNode.evalObject(frame);
+      if (!(task instanceof Task)) {
+        throw invalidType();
+      }
+      return ((Task)task).join();
+    }
+  }
+  
+  static class ChannelNode extends Node {
+    @Child
+    private final Node capacityNode;
+    
+    ChannelNode(Node capacityNode) {
+      super(TYPE_STATE_OBJECT);
+      this.capacityNode = adoptChild(capacityNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      int capacity;
+      try {
+        capacity = capacityNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw channelCapacityMustBeAnInteger();
       }
-      throw new UnexpectedResultException(result);
+      if (capacity <= 0) {
+        throw channelCapacityMustBeAnInteger();
+      }
+      return new Channel(capacity);
     }
     
     @Override
-    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
-      Object result = evalObject(frame);
-      if (result instanceof Boolean) {
-        return (Boolean)result;
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class SendNode extends Node {
+    @Child
+    private final Node channelNode;
+    @Child
+    private final Node valueNode;
+    
+    SendNode(Node channelNode, Node valueNode) {
+      super(TYPE_STATE_OBJECT);
+      this.channelNode = adoptChild(channelNode);
+      this.valueNode = adoptChild(valueNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Object channel = channelNode.evalObject(frame);
+      if (!(channel instanceof Channel)) {
+        throw invalidType();
+      }
+      ((Channel)channel).send(valueNode.eval(frame));
+      return List.empty();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class ReceiveNode extends GenericNode {
+    @Child
+    private final Node channelNode;
+    
+    ReceiveNode(Node channelNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.channelNode = adoptChild(channelNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Object channel = channelNode.evalObject(frame);
+      if (!(channel instanceof Channel)) {
+        throw invalidType();
       }
-      throw new UnexpectedResultException(result);
+      return ((Channel)channel).receive();
     }
   }
   
   static class ParameterNode extends com.oracle.truffle.api.nodes.Node {
     private final FrameSlot slot;
     @CompilationFinal
-    private int typeState;
-    @CompilationFinal
-    private Assumption typeStateStable; 
+    private TypeState typeState;
 
     ParameterNode(FrameSlot slot) {
       this.slot = slot;
       CompilerDirectives.transferToInterpreter();
-      typeState = TYPE_STATE_UNINITIALIZED;
-      typeStateStable = Truffle.getRuntime().createAssumption();
+      typeState = new TypeState(TYPE_STATE_UNINITIALIZED);
     }
     
     private void setTypeState(int state) {
-      if (Interpreter.isTypeState(typeStateStable, typeState, state)) {
+      if (Interpreter.isTypeState(typeState, state)) {
         return;
       }
       CompilerDirectives.transferToInterpreter();
-      typeState = state;
-      typeStateStable = Truffle.getRuntime().createAssumption();
-      System.out.println(this  + " -> " + state);
+      transitionTypeState(state);
+    }
+    
+    private synchronized void transitionTypeState(int state) {
+      TypeState typeState = this.typeState;
+      if (typeState.state == state) {  // already done by another thread
+        return;
+      }
+      this.typeState = new TypeState(state);
+      typeState.stable.invalidate();
+      if (Trace.SPECIALIZATION >= Trace.INFO) {
+        Trace.log(Trace.Category.SPECIALIZATION, this  + " -> " + state);
+      }
+      recordTypeTransition(this, typeState.state);
     }
     
     private boolean isTypeState(int state) {
-      return Interpreter.isTypeState(typeStateStable, typeState, state);
+      return Interpreter.isTypeState(typeState, state);
     }
     
-    void setObject(VirtualFrame frame, Object value) {
-      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
-        if (value instanceof Integer) {
+    void setInt(VirtualFrame frame, int value) {
+      if (isTypeState(TYPE_STATE_INT)) {
+        try {
+          frame.setInt(slot, value);
+          return;
+        } catch (FrameSlotTypeException e) {
+          // fallthrough
+        }
+      }
+      setObject(frame, value);
+    }
+    
+    void setObject(VirtualFrame frame, Object value) {
+      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
+        if (value instanceof Integer) {
           FrameUtil.setIntSafe(frame, slot, (Integer)value);
           setTypeState(TYPE_STATE_INT);
           return;
@@ -373,10 +888,35 @@ public class Interpreter {
   }
   
   //FIXME should be List ?
-  static class ArrayArguments extends Arguments {
+  /** Arguments of all calls, they carry the budget of the current execution.
+   */
+  static abstract class NinalArguments extends Arguments {
+    final Budget budget;
+    final Globals globals;
+    
+    NinalArguments(Budget budget, Globals globals) {
+      this.budget = budget;
+      this.globals = globals;
+    }
+  }
+  
+  static Budget budget(VirtualFrame frame) {
+    return frame.getArguments(NinalArguments.class).budget;
+  }
+  
+  static Globals globals(VirtualFrame frame) {
+    return frame.getArguments(NinalArguments.class).globals;
+  }
+  
+  static Interpreter context(VirtualFrame frame) {
+    return globals(frame).context;
+  }
+  
+  static class ArrayArguments extends NinalArguments {
     private final Object[] values;
 
-    ArrayArguments(Object[] values) {
+    ArrayArguments(Object[] values, Budget budget, Globals globals) {
+        super(budget, globals);
         this.values = values;
     }
 
@@ -389,6 +929,34 @@ public class Interpreter {
     }
   }
   
+  static class ClosureArguments extends ArrayArguments {
+    final MaterializedFrame enclosingFrame;  // null if the closure captures nothing
+    
+    ClosureArguments(Object[] values, MaterializedFrame enclosingFrame, Budget budget, Globals globals) {
+      super(values, budget, globals);
+      this.enclosingFrame = enclosingFrame;
+    }
+  }
+  
+  static class IntArrayArguments extends NinalArguments {
+    private final int[] values;
+    final MaterializedFrame enclosingFrame;  // frame captured by a closure or null
+
+    IntArrayArguments(int[] values, MaterializedFrame enclosingFrame, Budget budget, Globals globals) {
+        super(budget, globals);
+        this.values = values;
+        this.enclosingFrame = enclosingFrame;
+    }
+
+    int size() {
+      return values.length;
+    }
+    
+    int get(int index) {
+        return values[index];
+    }
+  }
+  
   static class BlockNode extends Node {
     @Children
     private final Node[] nodes;
@@ -412,7 +980,7 @@ public class Interpreter {
     boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
       if (nodes.length == 0) {
         setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(List.empty());
+        throw unexpectedResult(List.empty());
       }
       for(int i = 0; i < nodes.length - 1; i++) {
         nodes[i].eval(frame);
@@ -430,7 +998,7 @@ public class Interpreter {
     int evalInt(VirtualFrame frame) throws UnexpectedResultException {
       if (nodes.length == 0) {
         setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(List.empty());
+        throw unexpectedResult(List.empty());
       }
       for(int i = 0; i < nodes.length - 1; i++) {
         nodes[i].eval(frame);
@@ -542,7 +1110,7 @@ public class Interpreter {
       if (rightValue == null) {
         rightValue = right;
       }
-      throw new UnexpectedResultException(slowPath(leftValue, rightValue));
+      throw unexpectedResult(slowPath(leftValue, rightValue));
     }
     
     private int doSmallOp(int left, int right) throws UnexpectedResultException {
@@ -561,7 +1129,7 @@ public class Interpreter {
         }
         throw should_not_reach_here();
       } catch(ArithmeticException e) {
-        throw new UnexpectedResultException(slowPath(left, right));
+        throw unexpectedResult(slowPath(left, right));
       }
     }
     
@@ -708,17 +1276,24 @@ public class Interpreter {
     
     @Override
     Object evalObject(VirtualFrame frame) {
-      try {
-        if (node.isTypeState(TYPE_STATE_BOOLEAN)) {
-          System.out.println(node.evalBoolean(frame));
+      Output output = globals(frame).output;
+      if (node.isTypeState(TYPE_STATE_INT)) {
+        try {
+          output.printInt(node.evalInt(frame));
+        } catch(UnexpectedResultException e) {
+          output.print(e.getResult());
         }
-        if (node.isTypeState(TYPE_STATE_INT)) {
-          System.out.println(node.evalInt(frame));
+        return List.empty();
+      }
+      if (node.isTypeState(TYPE_STATE_BOOLEAN)) {
+        try {
+          output.printBoolean(node.evalBoolean(frame));
+        } catch(UnexpectedResultException e) {
+          output.print(e.getResult());
         }
-      } catch(UnexpectedResultException e) {
-        System.out.println(e.getResult());
+        return List.empty();
       }
-      System.out.println(node.evalObject(frame));
+      output.print(node.eval(frame));
       return List.empty();
     }
     
@@ -732,307 +1307,2223 @@ public class Interpreter {
     }
   }
   
-  static class IfNode extends Node {
-    @Child
-    private final Node condition;
-    @Child
-    private final Node trueNode;
+  static Array asArray(Object value) {
+    if (value instanceof Array) {
+      return (Array)value;
+    }
+    throw invalidType();
+  }
+  
+  static class ArrayNewNode extends Node {
     @Child
-    private final Node falseNode;
+    private final Node lengthNode;
     
-    IfNode(Node condition, Node trueNode, Node falseNode) {
-      super(TYPE_STATE_UNINITIALIZED);
-      this.condition = adoptChild(condition);
-      this.trueNode = adoptChild(trueNode);
-      this.falseNode = adoptChild(falseNode);
+    ArrayNewNode(Node lengthNode) {
+      super(TYPE_STATE_OBJECT);
+      this.lengthNode = adoptChild(lengthNode);
     }
     
     @Override
     Object evalObject(VirtualFrame frame) {
-      boolean test;
+      int length;
       try {
-        test = condition.evalBoolean(frame);
+        length = lengthNode.evalInt(frame);
       } catch (UnexpectedResultException e) {
-        throw conditionIsNotABoolean();
+        throw arrayLengthMustBeAnInteger();
       }
-      if (test) {
-        return trueNode.evalObject(frame);
+      if (length < 0) {
+        throw arrayLengthMustBeAnInteger();
       }
-      return falseNode.evalObject(frame);
+      budget(frame).allocate(length);
+      return new Array(length);
     }
     
     @Override
-    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
-      boolean test;
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class ArrayGetNode extends Node {
+    @Child
+    private final Node arrayNode;
+    @Child
+    private final Node indexNode;
+    
+    ArrayGetNode(Node arrayNode, Node indexNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.arrayNode = adoptChild(arrayNode);
+      this.indexNode = adoptChild(indexNode);
+    }
+    
+    private int evalIndex(VirtualFrame frame) {
       try {
-        test = condition.evalBoolean(frame);
+        return indexNode.evalInt(frame);
       } catch (UnexpectedResultException e) {
-        throw conditionIsNotABoolean();
-      }
-      try {
-        if (test) {
-          return trueNode.evalBoolean(frame);
-        }
-        return falseNode.evalBoolean(frame);
-      } catch(UnexpectedResultException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw e;
+        throw arrayIndexMustBeAnInteger();
       }
     }
     
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Array array = asArray(arrayNode.evalObject(frame));
+      return array.get(evalIndex(frame));
+    }
+    
     @Override
     int evalInt(VirtualFrame frame) throws UnexpectedResultException {
-      boolean test;
-      try {
-        test = condition.evalBoolean(frame);
-      } catch (UnexpectedResultException e) {
-        throw conditionIsNotABoolean();
+      Array array = asArray(arrayNode.evalObject(frame));
+      int index = evalIndex(frame);
+      if (array.getKind() == Array.KIND_INT) {
+        return array.getInt(index);
       }
-      try {
-        if (test) {
-          return trueNode.evalInt(frame);
-        }
-        return falseNode.evalInt(frame);
-      } catch(UnexpectedResultException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw e;
+      setTypeState(TYPE_STATE_OBJECT);
+      throw unexpectedResult(array.get(index));
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      Object result = evalObject(frame);
+      if (result instanceof Boolean) {
+        return (Boolean)result;
       }
+      setTypeState(TYPE_STATE_OBJECT);
+      throw unexpectedResult(result);
     }
   }
   
-  static class RangeNode extends Node {
-    private final FrameSlot slot;
+  static class ArraySetNode extends Node {
     @Child
-    private final Node firstNode;
+    private final Node arrayNode;
     @Child
-    private final Node lastNode;
+    private final Node indexNode;
     @Child
-    private final Node bodyNode;
+    private final Node valueNode;
     
-    RangeNode(FrameSlot slot, Node firstNode, Node lastNode, Node bodyNode) {
-      super(TYPE_STATE_UNINITIALIZED);
-      this.slot = slot;
-      this.firstNode = adoptChild(firstNode);
-      this.lastNode = adoptChild(lastNode);
-      this.bodyNode = adoptChild(bodyNode);
+    ArraySetNode(Node arrayNode, Node indexNode, Node valueNode) {
+      super(TYPE_STATE_OBJECT);
+      this.arrayNode = adoptChild(arrayNode);
+      this.indexNode = adoptChild(indexNode);
+      this.valueNode = adoptChild(valueNode);
     }
-
+    
     @Override
-    @ExplodeLoop   // if possible
     Object evalObject(VirtualFrame frame) {
-      int first;
-      try {
-        first = firstNode.evalInt(frame);
-      } catch (UnexpectedResultException e) {
-        throw rangeInitialValueMustBeAnInteger();
-      }
-      int last;
+      Array array = asArray(arrayNode.evalObject(frame));
+      int index;
       try {
-        last = lastNode.evalInt(frame);
+        index = indexNode.evalInt(frame);
       } catch (UnexpectedResultException e) {
-        throw rangeLastValueMustBeAnInteger();
+        throw arrayIndexMustBeAnInteger();
       }
-      
-      Object result = List.empty();
-      FrameSlot slot = this.slot;
-      for(int i = first; i < last; i++) {
-        FrameUtil.setIntSafe(frame, slot, i);
-        bodyNode.eval(frame);
+      if (valueNode.isTypeState(TYPE_STATE_INT)) {
+        try {
+          array.setInt(index, valueNode.evalInt(frame));
+        } catch(UnexpectedResultException e) {
+          array.set(index, e.getResult());
+        }
+        return List.empty();
       }
-      return result;
+      array.set(index, valueNode.eval(frame));
+      return List.empty();
     }
     
     @Override
-    @ExplodeLoop   // if possible
-    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
-      int first;
-      try {
-        first = firstNode.evalInt(frame);
-      } catch (UnexpectedResultException e) {
-        throw rangeInitialValueMustBeAnInteger();
-      }
-      int last;
-      try {
-        last = lastNode.evalInt(frame);
-      } catch (UnexpectedResultException e) {
-        throw rangeLastValueMustBeAnInteger();
-      }
-      
-      if (first >= last) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(List.empty());
-      }
-      
-      FrameSlot slot = this.slot;
-      for(int i = first; i < last - 1; i++) {
-        FrameUtil.setIntSafe(frame, slot, i);
-        bodyNode.eval(frame);
-      }
-      FrameUtil.setIntSafe(frame, slot, last - 1);
-      try {
-        return bodyNode.evalBoolean(frame);
-      } catch(UnexpectedResultException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw e;
-      }
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
     }
-    
     @Override
-    @ExplodeLoop   // if possible
-    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
-      int first;
-      try {
-        first = firstNode.evalInt(frame);
-      } catch (UnexpectedResultException e) {
-        throw rangeInitialValueMustBeAnInteger();
-      }
-      int last;
-      try {
-        last = lastNode.evalInt(frame);
-      } catch (UnexpectedResultException e) {
-        throw rangeLastValueMustBeAnInteger();
-      }
-      
-      if (first >= last) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(List.empty());
-      }
-      
-      FrameSlot slot = this.slot;
-      for(int i = first; i < last - 1; i++) {
-        FrameUtil.setIntSafe(frame, slot, i);
-        bodyNode.eval(frame);
-      }
-      FrameUtil.setIntSafe(frame, slot, last - 1);
-      try {
-        return bodyNode.evalInt(frame);
-      } catch(UnexpectedResultException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw e;
-      }
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
     }
   }
   
-  static class VarLoadNode extends Node {
-    private final FrameSlot slot;
-
-    VarLoadNode(FrameSlot slot) {
-      super(typeStateForFrameSlotkind(slot.getKind()));
-      this.slot = slot;
-    }
+  static class ArrayLengthNode extends Node {
+    @Child
+    private final Node arrayNode;
     
-    static int typeStateForFrameSlotkind(FrameSlotKind kind) {
-      switch(kind) {
-      case Boolean:
-        return TYPE_STATE_BOOLEAN;
-      case Int:
-        return TYPE_STATE_INT;
-      default:
-        return TYPE_STATE_UNINITIALIZED;
-      }
+    ArrayLengthNode(Node arrayNode) {
+      super(TYPE_STATE_INT);
+      this.arrayNode = adoptChild(arrayNode);
     }
     
     @Override
     Object evalObject(VirtualFrame frame) {
-      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
-        return frame.getValue(slot);
-      }
-      
-      try {
-        return frame.getObject(slot);
-      } catch (FrameSlotTypeException e) {
-        throw should_not_reach_here();
-      }
+      return evalInt(frame);
     }
     
     @Override
-    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
-      try {
-        return frame.getBoolean(slot);
-      } catch (FrameSlotTypeException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(frame.getValue(slot));
-      }
+    int evalInt(VirtualFrame frame) {
+      return asArray(arrayNode.evalObject(frame)).length();
     }
     
     @Override
-    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
-      try {
-        return frame.getInt(slot);
-      } catch (FrameSlotTypeException e) {
-        setTypeState(TYPE_STATE_OBJECT);
-        throw new UnexpectedResultException(frame.getValue(slot));
-      }
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
     }
   }
   
-  static class VarStoreNode extends Node {
-    private final FrameSlot slot;
+  static Map asMap(Object value) {
+    if (value instanceof Map) {
+      return (Map)value;
+    }
+    throw invalidType();
+  }
+  
+  static class MapNewNode extends Node {
+    MapNewNode() {
+      super(TYPE_STATE_OBJECT);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      budget(frame).allocate(1);
+      return new Map();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class MapGetNode extends GenericNode {
     @Child
-    private final Node initNode;
-
-    VarStoreNode(FrameSlot slot, Node initNode) {
+    private final Node mapNode;
+    @Child
+    private final Node keyNode;
+    
+    MapGetNode(Node mapNode, Node keyNode) {
       super(TYPE_STATE_UNINITIALIZED);
-      this.slot = slot;
-      this.initNode = adoptChild(initNode);
+      this.mapNode = adoptChild(mapNode);
+      this.keyNode = adoptChild(keyNode);
     }
     
     @Override
-    Object eval(VirtualFrame frame) {
-      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
-        Object value = initNode.eval(frame);
-        if (value instanceof Integer) {
-          FrameUtil.setIntSafe(frame, slot, (Integer)value);
-        }
-        else if (value instanceof Boolean) {
-          FrameUtil.setBooleanSafe(frame, slot, (Boolean)value);
-        } else {
-          FrameUtil.setObjectSafe(frame, slot, value);
+    Object evalObject(VirtualFrame frame) {
+      Map map = asMap(mapNode.evalObject(frame));
+      Object value;
+      if (keyNode.isTypeState(TYPE_STATE_INT)) {
+        try {
+          value = map.get(keyNode.evalInt(frame));
+        } catch (UnexpectedResultException e) {
+          value = map.get(e.getResult());
         }
-        setTypeState(TYPE_STATE_OBJECT);
+      } else {
+        value = map.get(keyNode.eval(frame));
+      }
+      if (value == null) {
         return List.empty();
       }
-      if (initNode.isTypeState(TYPE_STATE_INT)) {
-        int value;
+      return value;
+    }
+  }
+  
+  static class MapPutNode extends Node {
+    @Child
+    private final Node mapNode;
+    @Child
+    private final Node keyNode;
+    @Child
+    private final Node valueNode;
+    
+    MapPutNode(Node mapNode, Node keyNode, Node valueNode) {
+      super(TYPE_STATE_OBJECT);
+      this.mapNode = adoptChild(mapNode);
+      this.keyNode = adoptChild(keyNode);
+      this.valueNode = adoptChild(valueNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Map map = asMap(mapNode.evalObject(frame));
+      budget(frame).allocate(1);
+      if (keyNode.isTypeState(TYPE_STATE_INT)) {
+        int key;
         try {
-          value = initNode.evalInt(frame);
+          key = keyNode.evalInt(frame);
         } catch (UnexpectedResultException e) {
-          FrameUtil.setObjectSafe(frame, slot, e.getResult());
-          return List.empty();
-        }
-        try {
-          frame.setInt(slot, value);
-        } catch (FrameSlotTypeException e) {
-          FrameUtil.setObjectSafe(frame, slot, value);
+          map.put(e.getResult(), valueNode.eval(frame));
           return List.empty();
         }
+        map.put(key, valueNode.eval(frame));
         return List.empty();
       }
-      if (initNode.isTypeState(TYPE_STATE_BOOLEAN)) {
-        boolean value;
+      map.put(keyNode.eval(frame), valueNode.eval(frame));
+      return List.empty();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class MapSizeNode extends Node {
+    @Child
+    private final Node mapNode;
+    
+    MapSizeNode(Node mapNode) {
+      super(TYPE_STATE_INT);
+      this.mapNode = adoptChild(mapNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      return evalInt(frame);
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) {
+      return asMap(mapNode.evalObject(frame)).size();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static CharSequence asString(Object value) {
+    if (value instanceof CharSequence) {
+      return (CharSequence)value;
+    }
+    throw invalidType();
+  }
+  
+  static CharSequence toText(Object value) {
+    if (value instanceof CharSequence) {
+      return (CharSequence)value;
+    }
+    if (value instanceof Integer) {
+      return Rope.valueOf((Integer)value);
+    }
+    return toStringSlowPath(value);
+  }
+  @SlowPath
+  static String toStringSlowPath(Object value) {
+    return String.valueOf(value);
+  }
+  
+  static class ConcatNode extends Node {
+    @Child
+    private final Node leftNode;
+    @Child
+    private final Node rightNode;
+    
+    ConcatNode(Node leftNode, Node rightNode) {
+      super(TYPE_STATE_OBJECT);
+      this.leftNode = adoptChild(leftNode);
+      this.rightNode = adoptChild(rightNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      CharSequence left = toText(leftNode.eval(frame));
+      CharSequence right = toText(rightNode.eval(frame));
+      CharSequence result = Rope.concat(left, right);
+      budget(frame).allocate(result.length());
+      return result;
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class LengthNode extends Node {
+    @Child
+    private final Node stringNode;
+    
+    LengthNode(Node stringNode) {
+      super(TYPE_STATE_INT);
+      this.stringNode = adoptChild(stringNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      return evalInt(frame);
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) {
+      return asString(stringNode.evalObject(frame)).length();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class SubstringNode extends Node {
+    @Child
+    private final Node stringNode;
+    @Child
+    private final Node startNode;
+    @Child
+    private final Node endNode;
+    
+    SubstringNode(Node stringNode, Node startNode, Node endNode) {
+      super(TYPE_STATE_OBJECT);
+      this.stringNode = adoptChild(stringNode);
+      this.startNode = adoptChild(startNode);
+      this.endNode = adoptChild(endNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      CharSequence string = asString(stringNode.evalObject(frame));
+      int start, end;
+      try {
+        start = startNode.evalInt(frame);
+        end = endNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw stringIndexMustBeAnInteger();
+      }
+      CharSequence result = string.subSequence(start, end);
+      budget(frame).allocate(result.length());
+      return result;
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class StrNode extends Node {
+    @Child
+    private final Node valueNode;
+    
+    StrNode(Node valueNode) {
+      super(TYPE_STATE_OBJECT);
+      this.valueNode = adoptChild(valueNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      if (valueNode.isTypeState(TYPE_STATE_INT)) {
         try {
-          value = initNode.evalBoolean(frame);
+          // the digits are written when the rope is flattened
+          return Rope.valueOf(valueNode.evalInt(frame));
         } catch (UnexpectedResultException e) {
-          FrameUtil.setObjectSafe(frame, slot, e.getResult());
-          return List.empty();
-        }
-        try {
-          frame.setBoolean(slot, value);
-        } catch (FrameSlotTypeException e) {
-          FrameUtil.setObjectSafe(frame, slot, value);
-          return List.empty();
+          return toText(e.getResult());
         }
-        return List.empty();
       }
-      Object value = initNode.eval(frame);
+      return toText(valueNode.eval(frame));
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class WarmupNode extends Node {
+    @Child
+    private final Node countNode;
+    @Child
+    private final Node node;
+    
+    WarmupNode(Node countNode, Node node) {
+      super(TYPE_STATE_OBJECT);
+      this.countNode = adoptChild(countNode);
+      this.node = adoptChild(node);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      int count;
+      try {
+        count = countNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw warmupCountMustBeAnInteger();
+      }
+      Budget budget = budget(frame);
+      for(int i = 0; i < count; i++) {
+        budget.tick();
+        node.eval(frame);
+      }
+      return List.empty();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  /** (bench name iterations expr) evaluates expr iterations times to warmup
+   *  then iterations times measuring each evaluation with System.nanoTime,
+   *  the statistics are computed and printed once all iterations are done.
+   *  The result of each evaluation is written in a volatile field (the blackhole)
+   *  so the compiler can not remove the evaluation.
+   */
+  static class BenchNode extends Node {
+    private final Symbol name;
+    @Child
+    private final Node iterationsNode;
+    @Child
+    private final Node node;
+    
+    BenchNode(Symbol name, Node iterationsNode, Node node) {
+      super(TYPE_STATE_OBJECT);
+      this.name = name;
+      this.iterationsNode = adoptChild(iterationsNode);
+      this.node = adoptChild(node);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      int iterations;
+      try {
+        iterations = iterationsNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw benchIterationsMustBeAnInteger();
+      }
+      if (iterations <= 0) {
+        throw benchIterationsMustBeAnInteger();
+      }
+      Budget budget = budget(frame);
+      for(int i = 0; i < iterations; i++) {
+        budget.tick();
+        blackhole = node.eval(frame);
+      }
+      budget.allocate(iterations);
+      long[] times = new long[iterations];
+      for(int i = 0; i < iterations; i++) {
+        budget.tick();
+        long start = System.nanoTime();
+        blackhole = node.eval(frame);
+        times[i] = System.nanoTime() - start;
+      }
+      printBenchReport(globals(frame).output, name, times);
+      return List.empty();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static volatile Object blackhole;
+  
+  @SlowPath
+  static void printBenchReport(Output output, Symbol name, long[] times) {
+    long sum = 0;
+    for(long time: times) {
+      sum += time;
+    }
+    Arrays.sort(times);
+    output.print(String.format("bench %s: %d iterations, mean %.3f us, min %.3f us, p50 %.3f us, p90 %.3f us, p99 %.3f us",
+        name.getName(), times.length, sum / 1e3 / times.length, times[0] / 1e3,
+        percentile(times, 0.5) / 1e3, percentile(times, 0.9) / 1e3, percentile(times, 0.99) / 1e3));
+  }
+  
+  private static long percentile(long[] sortedTimes, double percentile) {
+    int index = (int)Math.ceil(percentile * sortedTimes.length) - 1;
+    return sortedTimes[Math.max(0, index)];
+  }
+  
+  static class IfNode extends Node {
+    @Child
+    private final Node condition;
+    @Child
+    private final Node trueNode;
+    @Child
+    private final Node falseNode;
+    
+    IfNode(Node condition, Node trueNode, Node falseNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.condition = adoptChild(condition);
+      this.trueNode = adoptChild(trueNode);
+      this.falseNode = adoptChild(falseNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      boolean test;
+      try {
+        test = condition.evalBoolean(frame);
+      } catch (UnexpectedResultException e) {
+        throw conditionIsNotABoolean();
+      }
+      if (test) {
+        return trueNode.evalObject(frame);
+      }
+      return falseNode.evalObject(frame);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      boolean test;
+      try {
+        test = condition.evalBoolean(frame);
+      } catch (UnexpectedResultException e) {
+        throw conditionIsNotABoolean();
+      }
+      try {
+        if (test) {
+          return trueNode.evalBoolean(frame);
+        }
+        return falseNode.evalBoolean(frame);
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      boolean test;
+      try {
+        test = condition.evalBoolean(frame);
+      } catch (UnexpectedResultException e) {
+        throw conditionIsNotABoolean();
+      }
+      try {
+        if (test) {
+          return trueNode.evalInt(frame);
+        }
+        return falseNode.evalInt(frame);
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+  }
+  
+  static class RangeNode extends Node {
+    private final FrameSlot slot;
+    @Child
+    private final Node firstNode;
+    @Child
+    private final Node lastNode;
+    @Child
+    private final Node bodyNode;
+    
+    RangeNode(FrameSlot slot, Node firstNode, Node lastNode, Node bodyNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.slot = slot;
+      this.firstNode = adoptChild(firstNode);
+      this.lastNode = adoptChild(lastNode);
+      this.bodyNode = adoptChild(bodyNode);
+    }
+
+    @Override
+    @ExplodeLoop   // if possible
+    Object evalObject(VirtualFrame frame) {
+      int first;
+      try {
+        first = firstNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeInitialValueMustBeAnInteger();
+      }
+      int last;
+      try {
+        last = lastNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeLastValueMustBeAnInteger();
+      }
+      
+      Object result = List.empty();
+      FrameSlot slot = this.slot;
+      Budget budget = budget(frame);
+      for(int i = first; i < last; i++) {
+        budget.tick();
+        FrameUtil.setIntSafe(frame, slot, i);
+        bodyNode.eval(frame);
+      }
+      return result;
+    }
+    
+    @Override
+    @ExplodeLoop   // if possible
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      int first;
+      try {
+        first = firstNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeInitialValueMustBeAnInteger();
+      }
+      int last;
+      try {
+        last = lastNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeLastValueMustBeAnInteger();
+      }
+      
+      if (first >= last) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(List.empty());
+      }
+      
+      FrameSlot slot = this.slot;
+      Budget budget = budget(frame);
+      for(int i = first; i < last - 1; i++) {
+        budget.tick();
+        FrameUtil.setIntSafe(frame, slot, i);
+        bodyNode.eval(frame);
+      }
+      budget.tick();
+      FrameUtil.setIntSafe(frame, slot, last - 1);
+      try {
+        return bodyNode.evalBoolean(frame);
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+    
+    @Override
+    @ExplodeLoop   // if possible
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      int first;
+      try {
+        first = firstNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeInitialValueMustBeAnInteger();
+      }
+      int last;
+      try {
+        last = lastNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeLastValueMustBeAnInteger();
+      }
+      
+      if (first >= last) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(List.empty());
+      }
+      
+      FrameSlot slot = this.slot;
+      Budget budget = budget(frame);
+      for(int i = first; i < last - 1; i++) {
+        budget.tick();
+        FrameUtil.setIntSafe(frame, slot, i);
+        bodyNode.eval(frame);
+      }
+      budget.tick();
+      FrameUtil.setIntSafe(frame, slot, last - 1);
+      try {
+        return bodyNode.evalInt(frame);
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+  }
+  
+  static class VarLoadNode extends Node {
+    private final FrameSlot slot;
+
+    VarLoadNode(FrameSlot slot) {
+      super(typeStateForFrameSlotkind(slot.getKind()));
+      this.slot = slot;
+    }
+    
+    static int typeStateForFrameSlotkind(FrameSlotKind kind) {
+      switch(kind) {
+      case Boolean:
+        return TYPE_STATE_BOOLEAN;
+      case Int:
+        return TYPE_STATE_INT;
+      default:
+        return TYPE_STATE_UNINITIALIZED;
+      }
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
+        return frame.getValue(slot);
+      }
+      
+      try {
+        return frame.getObject(slot);
+      } catch (FrameSlotTypeException e) {
+        throw should_not_reach_here();
+      }
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      try {
+        return frame.getBoolean(slot);
+      } catch (FrameSlotTypeException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(frame.getValue(slot));
+      }
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      try {
+        return frame.getInt(slot);
+      } catch (FrameSlotTypeException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(frame.getValue(slot));
+      }
+    }
+  }
+  
+  static class VarStoreNode extends Node {
+    private final FrameSlot slot;
+    @Child
+    private final Node initNode;
+
+    VarStoreNode(FrameSlot slot, Node initNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.slot = slot;
+      this.initNode = adoptChild(initNode);
+    }
+    
+    @Override
+    Object eval(VirtualFrame frame) {
+      if (isTypeState(TYPE_STATE_UNINITIALIZED)) {
+        Object value = initNode.eval(frame);
+        if (value instanceof Integer) {
+          FrameUtil.setIntSafe(frame, slot, (Integer)value);
+        }
+        else if (value instanceof Boolean) {
+          FrameUtil.setBooleanSafe(frame, slot, (Boolean)value);
+        } else {
+          FrameUtil.setObjectSafe(frame, slot, value);
+        }
+        setTypeState(TYPE_STATE_OBJECT);
+        return List.empty();
+      }
+      if (initNode.isTypeState(TYPE_STATE_INT)) {
+        int value;
+        try {
+          value = initNode.evalInt(frame);
+        } catch (UnexpectedResultException e) {
+          FrameUtil.setObjectSafe(frame, slot, e.getResult());
+          return List.empty();
+        }
+        try {
+          frame.setInt(slot, value);
+        } catch (FrameSlotTypeException e) {
+          FrameUtil.setObjectSafe(frame, slot, value);
+          return List.empty();
+        }
+        return List.empty();
+      }
+      if (initNode.isTypeState(TYPE_STATE_BOOLEAN)) {
+        boolean value;
+        try {
+          value = initNode.evalBoolean(frame);
+        } catch (UnexpectedResultException e) {
+          FrameUtil.setObjectSafe(frame, slot, e.getResult());
+          return List.empty();
+        }
+        try {
+          frame.setBoolean(slot, value);
+        } catch (FrameSlotTypeException e) {
+          FrameUtil.setObjectSafe(frame, slot, value);
+          return List.empty();
+        }
+        return List.empty();
+      }
+      Object value = initNode.eval(frame);
+      try {
+        frame.setObject(slot, value);
+      } catch (FrameSlotTypeException e) {
+        FrameUtil.setObjectSafe(frame, slot, value);
+        return List.empty();
+      }
+      return List.empty();
+    }
+  }
+  
+  /** A global variable, declared by a top-level var.
+   *  While a global is not reassigned, its value is a constant for the compiler.
+   *  Once reassigned, its value is stored as an int or a boolean if possible
+   *  like a frame slot.
+   */
+  static final class Global {
+    private final Symbol name;
+    @CompilationFinal
+    private Object constant;            // null if the global is not yet initialized
+    @CompilationFinal
+    private Assumption constantStable;  // invalid once the global is reassigned
+    @CompilationFinal
+    private TypeState typeState;        // kind of storage once the global is reassigned
+    private int intValue;
+    private boolean booleanValue;
+    private Object objectValue;
+    
+    Global(Symbol name) {
+      this.name = name;
+      constantStable = Truffle.getRuntime().createAssumption();
+      typeState = new TypeState(TYPE_STATE_UNINITIALIZED);
+    }
+    
+    Object getValue() {
+      if (!isReassigned()) {
+        Object constant = this.constant;
+        if (constant == null) {
+          return getConstantSlowPath();
+        }
+        return constant;
+      }
+      if (Interpreter.isTypeState(typeState, TYPE_STATE_INT)) {
+        return intValue;
+      }
+      if (Interpreter.isTypeState(typeState, TYPE_STATE_BOOLEAN)) {
+        return booleanValue;
+      }
+      return objectValue;
+    }
+    
+    @SlowPath
+    private synchronized Object getConstantSlowPath() {
+      if (constant == null) {
+        throw uninitializedGlobal(name);
+      }
+      return constant;
+    }
+    
+    /* a new global initialized with a copy of the current value, see Globals.copy */
+    synchronized Global copy(Globals globals, IdentityHashMap<Object, Object> copies) {
+      Global global = new Global(name);
+      Object value;
+      if (constantStable.isValid()) {
+        value = constant;
+      } else if (typeState.state == TYPE_STATE_INT) {
+        value = intValue;
+      } else if (typeState.state == TYPE_STATE_BOOLEAN) {
+        value = booleanValue;
+      } else {
+        value = objectValue;
+      }
+      if (value != null) {
+        global.assign(copyValue(value, globals, copies));
+      }
+      return global;
+    }
+    
+    /* the assumption stays invalid once the global is reassigned, so it is tested
+     * with isValid(), a check() would throw an exception at each access */
+    private boolean isReassigned() {
+      return !constantStable.isValid();
+    }
+    
+    int getInt() throws UnexpectedResultException {
+      if (!isReassigned() || !Interpreter.isTypeState(typeState, TYPE_STATE_INT)) {
+        Object value = getValue();
+        if (value instanceof Integer) {
+          return (Integer)value;
+        }
+        throw new UnexpectedResultException(value);
+      }
+      return intValue;
+    }
+    
+    boolean getBoolean() throws UnexpectedResultException {
+      if (!isReassigned() || !Interpreter.isTypeState(typeState, TYPE_STATE_BOOLEAN)) {
+        Object value = getValue();
+        if (value instanceof Boolean) {
+          return (Boolean)value;
+        }
+        throw new UnexpectedResultException(value);
+      }
+      return booleanValue;
+    }
+    
+    void setInt(int value) {
+      if (isReassigned() && Interpreter.isTypeState(typeState, TYPE_STATE_INT)) {
+        intValue = value;
+        return;
+      }
+      setObject(value);
+    }
+    
+    void setBoolean(boolean value) {
+      if (isReassigned() && Interpreter.isTypeState(typeState, TYPE_STATE_BOOLEAN)) {
+        booleanValue = value;
+        return;
+      }
+      setObject(value);
+    }
+    
+    void setObject(Object value) {
+      if (isReassigned()) {
+        if (value instanceof Integer && Interpreter.isTypeState(typeState, TYPE_STATE_INT)) {
+          intValue = (Integer)value;
+          return;
+        }
+        if (value instanceof Boolean && Interpreter.isTypeState(typeState, TYPE_STATE_BOOLEAN)) {
+          booleanValue = (Boolean)value;
+          return;
+        }
+        if (Interpreter.isTypeState(typeState, TYPE_STATE_OBJECT)) {
+          objectValue = value;
+          return;
+        }
+      }
+      CompilerDirectives.transferToInterpreter();
+      assign(value);
+    }
+    
+    private synchronized void assign(Object value) {
+      Assumption constantStable = this.constantStable;
+      if (constantStable.isValid() && constant == null) {  // initialization
+        constant = value;
+        this.constantStable = Truffle.getRuntime().createAssumption();
+        constantStable.invalidate();
+        return;
+      }
+      
+      TypeState typeState = this.typeState;
+      int state = typeStateForResult(value);
+      if (typeState.state != TYPE_STATE_UNINITIALIZED && typeState.state != state) {
+        state = TYPE_STATE_OBJECT;
+      }
+      switch(state) {
+      case TYPE_STATE_INT:
+        intValue = (Integer)value;
+        break;
+      case TYPE_STATE_BOOLEAN:
+        booleanValue = (Boolean)value;
+        break;
+      default:
+        objectValue = value;
+      }
+      if (typeState.state != state) {
+        this.typeState = new TypeState(state);
+        typeState.stable.invalidate();
+        if (Trace.SPECIALIZATION >= Trace.INFO) {
+          Trace.log(Trace.Category.SPECIALIZATION, "global " + name + " -> " + state);
+        }
+      }
+      constantStable.invalidate();  // the global is not a constant anymore
+    }
+  }
+  
+  /** The global state of an execution context, the interpreter that defines the functions,
+   *  the global variables and the destination of print.
+   *  The ASTs are shared by the contexts, so the globals of the current context
+   *  are passed with the arguments of each call.
+   *  
+   * @see Interpreter#fork(Output)
+   */
+  static final class Globals {
+    final Interpreter context;
+    private final ConcurrentHashMap<Symbol, Global> globalMap = new ConcurrentHashMap<>();
+    // globals by slot, filled lazily by the global nodes executed by several contexts
+    private volatile Global[] globalTable = new Global[0];
+    volatile Output output;
+    
+    Globals(Interpreter context, Output output) {
+      this.context = context;
+      this.output = output;
+    }
+    
+    Global lookup(Symbol name) {
+      Global global = globalMap.get(name);
+      if (global == null) {
+        throw unknownSymbol(name);
+      }
+      return global;
+    }
+    
+    Global define(Symbol name) {
+      Global global = globalMap.get(name);
+      if (global == null) {
+        global = new Global(name);
+        Global existing = globalMap.putIfAbsent(name, global);
+        if (existing != null) {
+          global = existing;
+        }
+      }
+      return global;
+    }
+    
+    /* the global of the slot, a missing global is looked up (or defined) by name
+     * each time, so an unknown symbol is not cached, see GlobalNode */
+    Global global(int slot, Symbol name, boolean define) {
+      Global[] globalTable = this.globalTable;
+      if (slot < globalTable.length) {
+        Global global = globalTable[slot];
+        if (global != null) {
+          return global;
+        }
+      }
+      return bind(slot, name, define);
+    }
+    
+    @SlowPath
+    private synchronized Global bind(int slot, Symbol name, boolean define) {
+      Global global = define? define(name): lookup(name);
+      Global[] globalTable = this.globalTable;
+      if (slot >= globalTable.length) {
+        globalTable = Arrays.copyOf(globalTable, Math.max(slot + 1, 2 * globalTable.length));
+        globalTable[slot] = global;
+        this.globalTable = globalTable;
+      } else {
+        globalTable[slot] = global;
+      }
+      return global;
+    }
+    
+    /* the globals of a new context, a copy of the current values,
+     * the arrays, maps and channels reachable from the values are copied too
+     * so a context does not see the modifications of the other contexts */
+    Globals copy(Interpreter context, Output output) {
+      Globals globals = new Globals(context, output);
+      IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+      for(Global global: globalMap.values()) {
+        globals.globalMap.put(global.name, global.copy(globals, copies));
+      }
+      return globals;
+    }
+  }
+  
+  /* copies the mutable parts of a value for the globals of a new context,
+   * a value reachable several times is copied once, the closures see the globals
+   * of the new context but the variables they capture are not copied */
+  static Object copyValue(Object value, Globals globals, IdentityHashMap<Object, Object> copies) {
+    if (value instanceof Array) {
+      Array array = (Array)value;
+      Array copy = (Array)copies.get(array);
+      if (copy == null) {
+        copy = array.copy();
+        copies.put(array, copy);
+        if (copy.getKind() == Array.KIND_OBJECT) {
+          for(int i = 0; i < copy.length(); i++) {
+            copy.set(i, copyValue(copy.get(i), globals, copies));
+          }
+        }
+      }
+      return copy;
+    }
+    if (value instanceof Map) {
+      Map map = (Map)value;
+      Map copy = (Map)copies.get(map);
+      if (copy == null) {
+        copy = map.copy();
+        copies.put(map, copy);
+        for(Object key: copy.keys()) {
+          copy.put(key, copyValue(copy.get(key), globals, copies));
+        }
+      }
+      return copy;
+    }
+    if (value instanceof Channel) {
+      Channel channel = (Channel)value;
+      Channel copy = (Channel)copies.get(channel);
+      if (copy == null) {
+        copy = new Channel(channel.capacity());
+        copies.put(channel, copy);
+        for(Object pendingValue: channel.pendingValues()) {
+          copy.send(copyValue(pendingValue, globals, copies));
+        }
+      }
+      return copy;
+    }
+    if (value instanceof List) {
+      List list = (List)value;
+      List.Builder builder = null;
+      for(int i = 0; i < list.size(); i++) {
+        Object element = list.get(i);
+        Object copy = copyValue(element, globals, copies);
+        if (copy != element && builder == null) {
+          builder = new List.Builder();
+          for(int j = 0; j < i; j++) {
+            builder.append(list.get(j));
+          }
+        }
+        if (builder != null) {
+          builder.append(copy);
+        }
+      }
+      return (builder == null)? list: builder.toList();
+    }
+    if (value instanceof Closure) {
+      Closure closure = (Closure)value;
+      Closure copy = (Closure)copies.get(closure);
+      if (copy == null) {
+        copy = new Closure(closure.callTarget, closure.enclosingFrame, globals);
+        copies.put(closure, copy);
+      }
+      return copy;
+    }
+    return value;  // immutable
+  }
+  
+  static final class GlobalBinding {
+    final Globals globals;
+    final Global global;
+    
+    GlobalBinding(Globals globals, Global global) {
+      this.globals = globals;
+      this.global = global;
+    }
+  }
+  
+  /** Finds the global in the globals of the current context, a top-level var defines it.
+   *  The node caches the global of the first context, if the node is executed
+   *  by a fork or by several contexts, the global is read from the global table
+   *  of the context, at the slot of the name of the node.
+   */
+  static abstract class GlobalNode extends Node {
+    final Symbol name;
+    private final int slot;
+    private final boolean define;
+    @CompilationFinal
+    private GlobalBinding binding;
+    @CompilationFinal
+    private boolean polymorphic;
+    
+    GlobalNode(int state, Symbol name, int slot, boolean define) {
+      super(state);
+      this.name = name;
+      this.slot = slot;
+      this.define = define;
+    }
+    
+    final Global global(VirtualFrame frame) {
+      Globals globals = globals(frame);
+      if (!polymorphic) {
+        GlobalBinding binding = this.binding;
+        if (binding != null && binding.globals == globals) {
+          return binding.global;
+        }
+        CompilerDirectives.transferToInterpreter();
+        return bind(globals);
+      }
+      return globals.global(slot, name, define);
+    }
+    
+    private synchronized Global bind(Globals globals) {
+      Global global = globals.global(slot, name, define);
+      GlobalBinding binding = this.binding;
+      if (globals.context.isFork() || (binding != null && binding.globals != globals)) {
+        polymorphic = true;
+        this.binding = null;
+        if (Trace.SPECIALIZATION >= Trace.INFO) {
+          Trace.log(Trace.Category.SPECIALIZATION, "global " + name + " accessed by a fork or several contexts");
+        }
+      } else if (binding == null) {
+        this.binding = new GlobalBinding(globals, global);
+      }
+      return global;
+    }
+  }
+  
+  static class GlobalLoadNode extends GlobalNode {
+    GlobalLoadNode(Symbol name, int slot) {
+      super(TYPE_STATE_UNINITIALIZED, name, slot, false);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      return global(frame).getValue();
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      try {
+        return global(frame).getInt();
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      try {
+        return global(frame).getBoolean();
+      } catch(UnexpectedResultException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw e;
+      }
+    }
+  }
+  
+  static class GlobalStoreNode extends GlobalNode {
+    @Child
+    private final Node valueNode;
+    
+    GlobalStoreNode(Symbol name, int slot, Node valueNode, boolean define) {
+      super(TYPE_STATE_OBJECT, name, slot, define);
+      this.valueNode = adoptChild(valueNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Global global = global(frame);
+      if (valueNode.isTypeState(TYPE_STATE_INT)) {
+        try {
+          global.setInt(valueNode.evalInt(frame));
+        } catch (UnexpectedResultException e) {
+          global.setObject(e.getResult());
+        }
+        return List.empty();
+      }
+      if (valueNode.isTypeState(TYPE_STATE_BOOLEAN)) {
+        try {
+          global.setBoolean(valueNode.evalBoolean(frame));
+        } catch (UnexpectedResultException e) {
+          global.setObject(e.getResult());
+        }
+        return List.empty();
+      }
+      global.setObject(valueNode.eval(frame));
+      return List.empty();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  /** Maps the symbols to their frame slots when creating the AST of a function,
+   *  a lambda or a top-level form. A function or a lambda has a frame scope,
+   *  block, range and inlined lambdas have nested scopes that share the frame of their parent.
+   *  The variables of a nested scope are not visible outside of it but keep their slots,
+   *  the load and store nodes of a slot specialize on the kind of its values,
+   *  so the variables of sibling scopes do not share a slot.
+   */
+  static final class Scope {
+    final FrameDescriptor frameDescriptor;
+    private final Scope parent;     // parent scope in the same frame or null
+    private final Scope enclosing;  // scope where a lambda is created or null
+    private final HashMap<Symbol, FrameSlot> slotMap = new HashMap<>();
+    private boolean captures;       // true if a lambda uses a local variable of an enclosing scope
+    
+    Scope(FrameDescriptor frameDescriptor, Scope enclosing) {
+      this.frameDescriptor = frameDescriptor;
+      this.parent = null;
+      this.enclosing = enclosing;
+    }
+    
+    Scope(Scope parent) {
+      this.frameDescriptor = parent.frameDescriptor;
+      this.parent = parent;
+      this.enclosing = null;
+    }
+    
+    FrameSlot addSlot(Symbol symbol, FrameSlotKind kind) {
+      // slot identifiers are unique, a symbol can be declared twice
+      FrameSlot slot = frameDescriptor.addFrameSlot(symbol.getName() + '#' + frameDescriptor.getSlots().size(), kind);
+      slotMap.put(symbol, slot);
+      return slot;
+    }
+    
+    FrameSlot find(Symbol symbol) {
+      for(Scope scope = this; scope != null; scope = scope.parent) {
+        FrameSlot slot = scope.slotMap.get(symbol);
+        if (slot != null) {
+          return slot;
+        }
+      }
+      return null;
+    }
+    
+    /** Resolves a symbol to a local variable (depth 0) or
+     *  to a local variable of an enclosing function.
+     * @param symbol a symbol.
+     * @return the resolved variable or null if the symbol is not a local variable.
+     */
+    Binding resolve(Symbol symbol) {
+      FrameSlot slot = find(symbol);
+      if (slot != null) {
+        return new Binding(slot, 0);
+      }
+      Scope enclosing = this;
+      for(int depth = 1; (enclosing = enclosing.getEnclosing()) != null; depth++) {
+        slot = enclosing.find(symbol);
+        if (slot != null) {
+          capture(depth);
+          return new Binding(slot, depth);
+        }
+      }
+      return null;
+    }
+    
+    private Scope frameScope() {
+      Scope scope = this;
+      while(scope.parent != null) {
+        scope = scope.parent;
+      }
+      return scope;
+    }
+    
+    Scope getEnclosing() {
+      return frameScope().enclosing;
+    }
+    
+    /* the lambdas between this scope and the enclosing scope at depth
+     * must capture the frame where they are created
+     */
+    void capture(int depth) {
+      Scope scope = this;
+      for(int i = 0; i < depth; i++) {
+        scope = scope.frameScope();
+        scope.captures = true;
+        scope = scope.enclosing;
+      }
+    }
+    
+    boolean captures() {
+      return captures;
+    }
+  }
+  
+  /** A symbol resolved to a slot of the current frame (depth 0)
+   *  or of the frame of an enclosing function.
+   */
+  static final class Binding {
+    final FrameSlot slot;
+    final int depth;
+    
+    Binding(FrameSlot slot, int depth) {
+      this.slot = slot;
+      this.depth = depth;
+    }
+  }
+  
+  /** A function value created by lambda.
+   */
+  static final class Closure {
+    final CallTarget callTarget;
+    final MaterializedFrame enclosingFrame;  // null if the lambda captures nothing
+    final Globals globals;                   // globals of the execution that creates the closure
+    
+    Closure(CallTarget callTarget, MaterializedFrame enclosingFrame, Globals globals) {
+      this.callTarget = callTarget;
+      this.enclosingFrame = enclosingFrame;
+      this.globals = globals;
+    }
+    
+    // the budget is the one of the caller, a closure may be called by another task
+    Object call(Budget budget, Object... arguments) {
+      return callTarget.call(null, new ClosureArguments(arguments, enclosingFrame, budget, globals));
+    }
+    
+    Object callInt(Budget budget, int... arguments) {
+      return callTarget.call(null, new IntArrayArguments(arguments, enclosingFrame, budget, globals));
+    }
+    
+    @Override
+    public String toString() {
+      return "closure";
+    }
+  }
+  
+  static Closure asClosure(Object value) {
+    if (value instanceof Closure) {
+      return (Closure)value;
+    }
+    throw notAClosure(value);
+  }
+  
+  /** A lazy sequence of values.
+   *  map and filter only add a stage to the sequence, all the stages are fused
+   *  in the loop of the source when a terminal operation (reduce, count, to-list) runs,
+   *  so no intermediate list is created.
+   *  Ints are pushed through the stages without being boxed if possible.
+   */
+  static abstract class Sequence {
+    /** Pushes the values of the sequence to the sink,
+     *  a tick of the budget is consumed for each value of the source.
+     */
+    abstract void forEach(Sink sink, Budget budget);
+    
+    @Override
+    public String toString() {
+      return "sequence";
+    }
+  }
+  
+  static abstract class Sink {
+    abstract void accept(Object value);
+    
+    void acceptInt(int value) {
+      accept(value);
+    }
+    
+    final void acceptResult(Object value) {
+      if (value instanceof Integer) {
+        acceptInt((Integer)value);
+        return;
+      }
+      accept(value);
+    }
+  }
+  
+  static final class RangeSequence extends Sequence {
+    private final int first;
+    private final int last;
+    
+    RangeSequence(int first, int last) {
+      this.first = first;
+      this.last = last;
+    }
+    
+    @Override
+    void forEach(Sink sink, Budget budget) {
+      for(int i = first; i < last; i++) {
+        budget.tick();
+        sink.acceptInt(i);
+      }
+    }
+  }
+  
+  static final class ListSequence extends Sequence {
+    private final List list;
+    
+    ListSequence(List list) {
+      this.list = list;
+    }
+    
+    @Override
+    void forEach(Sink sink, Budget budget) {
+      List list = this.list;
+      for(int i = 0; i < list.size(); i++) {
+        budget.tick();
+        sink.acceptResult(list.get(i));
+      }
+    }
+  }
+  
+  static final class ArraySequence extends Sequence {
+    private final Array array;
+    
+    ArraySequence(Array array) {
+      this.array = array;
+    }
+    
+    @Override
+    void forEach(Sink sink, Budget budget) {
+      Array array = this.array;
+      for(int i = 0; i < array.length(); i++) {
+        budget.tick();
+        if (array.getKind() == Array.KIND_INT) {
+          sink.acceptInt(array.getInt(i));
+        } else {
+          sink.acceptResult(array.get(i));
+        }
+      }
+    }
+  }
+  
+  static final class MapSequence extends Sequence {
+    private final Sequence source;
+    private final Closure closure;
+    
+    MapSequence(Sequence source, Closure closure) {
+      this.source = source;
+      this.closure = closure;
+    }
+    
+    @Override
+    void forEach(final Sink sink, final Budget budget) {
+      final Closure closure = this.closure;
+      source.forEach(new Sink() {
+        @Override
+        void accept(Object value) {
+          sink.acceptResult(closure.call(budget, value));
+        }
+        @Override
+        void acceptInt(int value) {
+          sink.acceptResult(closure.callInt(budget, value));
+        }
+      }, budget);
+    }
+  }
+  
+  static final class FilterSequence extends Sequence {
+    private final Sequence source;
+    private final Closure closure;
+    
+    FilterSequence(Sequence source, Closure closure) {
+      this.source = source;
+      this.closure = closure;
+    }
+    
+    @Override
+    void forEach(final Sink sink, final Budget budget) {
+      final Closure closure = this.closure;
+      source.forEach(new Sink() {
+        @Override
+        void accept(Object value) {
+          if (asBoolean(closure.call(budget, value))) {
+            sink.accept(value);
+          }
+        }
+        @Override
+        void acceptInt(int value) {
+          if (asBoolean(closure.callInt(budget, value))) {
+            sink.acceptInt(value);
+          }
+        }
+      }, budget);
+    }
+  }
+  
+  /** A sequence on the content of a file, the file is memory mapped by chunks
+   *  and parsed directly from the mapped buffers each time the sequence is traversed.
+   */
+  static abstract class FileSequence extends Sequence {
+    private static final long CHUNK_SIZE = 1 << 30;
+    
+    private final Path path;
+    
+    FileSequence(Path path) {
+      this.path = path;
+    }
+    
+    @Override
+    final void forEach(Sink sink, Budget budget) {
+      ChunkParser parser = newParser(sink, budget);
+      try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        for(long position = 0; position < size; position += CHUNK_SIZE) {
+          budget.tick();
+          parser.parse(channel.map(MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position)));
+        }
+        parser.end();
+      } catch (IOException e) {
+        throw new RuntimeException("can not read " + path, e);
+      }
+    }
+    
+    abstract ChunkParser newParser(Sink sink, Budget budget);
+    
+    @Override
+    public String toString() {
+      return "sequence on " + path;
+    }
+  }
+  
+  /** Parses the chunks of a file, a value may span two chunks.
+   */
+  static abstract class ChunkParser {
+    final Sink sink;
+    final Budget budget;
+    
+    ChunkParser(Sink sink, Budget budget) {
+      this.sink = sink;
+      this.budget = budget;
+    }
+    
+    abstract void parse(MappedByteBuffer buffer);
+    
+    /** Called at the end of the file.
+     */
+    abstract void end();
+  }
+  
+  /** The decimal integers of a file, separated by any other characters.
+   *  A '-' is a sign only at the start of a token, so "10-3" is read as 10 and 3.
+   *  The integers that do not fit in a long are read as BigIntegers.
+   */
+  static final class IntFileSequence extends FileSequence {
+    IntFileSequence(Path path) {
+      super(path);
+    }
+    
+    @Override
+    ChunkParser newParser(Sink sink, Budget budget) {
+      return new ChunkParser(sink, budget) {
+        private long value;
+        private int digits;  // number of digits of value, 0 if not in a number
+        private boolean negative;
+        private boolean separator = true;  // true if a '-' can start a number
+        private StringBuilder bigDigits;   // the digits of a number too large for a long
+        
+        @Override
+        void parse(MappedByteBuffer buffer) {
+          long value = this.value;
+          int digits = this.digits;
+          boolean negative = this.negative;
+          boolean separator = this.separator;
+          int limit = buffer.limit();
+          for(int i = 0; i < limit; i++) {
+            int c = buffer.get(i);
+            if (c >= '0' && c <= '9') {
+              if (++digits > 18) {
+                bigDigit(value, c);
+                continue;
+              }
+              value = value * 10 + (c - '0');
+              continue;
+            }
+            if (digits != 0) {
+              emit(negative, value);
+              value = 0;
+              digits = 0;
+              separator = false;  // "10-3" is 10 and 3
+            }
+            negative = c == '-' && separator;
+            separator = c != '-' && (c < 'a' || c > 'z') && (c < 'A' || c > 'Z');
+          }
+          this.value = value;
+          this.digits = digits;
+          this.negative = negative;
+          this.separator = separator;
+        }
+        
+        @Override
+        void end() {
+          if (digits != 0) {
+            emit(negative, value);
+          }
+        }
+        
+        @SlowPath
+        private void bigDigit(long value, int c) {
+          if (bigDigits == null) {
+            bigDigits = new StringBuilder().append(value);
+          }
+          bigDigits.append((char)c);
+        }
+        
+        private void emit(boolean negative, long value) {
+          budget.tick();
+          if (bigDigits != null) {
+            emitBig(negative);
+            return;
+          }
+          if (negative) {
+            value = -value;
+          }
+          if (value == (int)value) {
+            sink.acceptInt((int)value);
+            return;
+          }
+          sink.accept(BigInteger.valueOf(value));
+        }
+        
+        @SlowPath
+        private void emitBig(boolean negative) {
+          BigInteger value = new BigInteger(bigDigits.toString());
+          bigDigits = null;
+          if (negative) {
+            value = value.negate();
+          }
+          if (value.bitLength() < 32) {  // leading zeros
+            sink.acceptInt(value.intValue());
+            return;
+          }
+          sink.accept(value);
+        }
+      };
+    }
+  }
+  
+  /** The lines of a file as strings decoded as UTF-8.
+   *  A line of ASCII characters is a view on the mapped buffer, see {@link AsciiString},
+   *  the other lines and the lines that span two chunks are decoded to Strings.
+   */
+  static final class LineFileSequence extends FileSequence {
+    LineFileSequence(Path path) {
+      super(path);
+    }
+    
+    @Override
+    ChunkParser newParser(Sink sink, Budget budget) {
+      return new ChunkParser(sink, budget) {
+        private byte[] line = new byte[128];  // the start of a line that spans two chunks
+        private int length;
+        
+        @Override
+        void parse(MappedByteBuffer buffer) {
+          int start = 0;
+          boolean ascii = true;
+          int limit = buffer.limit();
+          for(int i = 0; i < limit; i++) {
+            byte c = buffer.get(i);
+            if (c < 0) {
+              ascii = false;
+              continue;
+            }
+            if (c != '\n') {
+              continue;
+            }
+            int end = (i != start && buffer.get(i - 1) == '\r')? i - 1: i;
+            if (ascii && length == 0) {
+              budget.tick();
+              budget.allocate(1);  // the characters are not copied
+              sink.accept(new AsciiString(buffer, start, end - start));
+            } else {
+              append(buffer, start, i);
+              emit();
+            }
+            start = i + 1;
+            ascii = true;
+          }
+          append(buffer, start, limit);
+        }
+        
+        @Override
+        void end() {
+          if (length != 0) {
+            emit();
+          }
+        }
+        
+        private void append(MappedByteBuffer buffer, int start, int end) {
+          int length = this.length;
+          if (length + end - start > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length << 1, length + end - start));
+          }
+          for(int i = start; i < end; i++) {
+            line[length++] = buffer.get(i);
+          }
+          this.length = length;
+        }
+        
+        private void emit() {
+          int length = this.length;
+          if (length != 0 && line[length - 1] == '\r') {
+            length--;
+          }
+          this.length = 0;
+          budget.tick();
+          budget.allocate(length);
+          sink.accept(new String(line, 0, length, StandardCharsets.UTF_8));
+        }
+      };
+    }
+  }
+  
+  static class ReadFileNode extends Node {
+    @Child
+    private final Node pathNode;
+    private final boolean lines;
+    
+    ReadFileNode(Node pathNode, boolean lines) {
+      super(TYPE_STATE_OBJECT);
+      this.pathNode = adoptChild(pathNode);
+      this.lines = lines;
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Path path = Paths.get(asString(pathNode.evalObject(frame)).toString());
+      if (lines) {
+        return new LineFileSequence(path);
+      }
+      return new IntFileSequence(path);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static boolean asBoolean(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean)value;
+    }
+    throw conditionIsNotABoolean();
+  }
+  
+  static Sequence asSequence(Object value) {
+    if (value instanceof Sequence) {
+      return (Sequence)value;
+    }
+    if (value instanceof List) {
+      return new ListSequence((List)value);
+    }
+    if (value instanceof Array) {
+      return new ArraySequence((Array)value);
+    }
+    throw invalidType();
+  }
+  
+  static class RangeSequenceNode extends Node {
+    @Child
+    private final Node firstNode;
+    @Child
+    private final Node lastNode;
+    
+    RangeSequenceNode(Node firstNode, Node lastNode) {
+      super(TYPE_STATE_OBJECT);
+      this.firstNode = adoptChild(firstNode);
+      this.lastNode = adoptChild(lastNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      int first;
+      try {
+        first = firstNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeInitialValueMustBeAnInteger();
+      }
+      int last;
+      try {
+        last = lastNode.evalInt(frame);
+      } catch (UnexpectedResultException e) {
+        throw rangeLastValueMustBeAnInteger();
+      }
+      return new RangeSequence(first, last);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class MapSequenceNode extends Node {
+    @Child
+    private final Node closureNode;
+    @Child
+    private final Node sequenceNode;
+    private final boolean filter;
+    
+    MapSequenceNode(Node closureNode, Node sequenceNode, boolean filter) {
+      super(TYPE_STATE_OBJECT);
+      this.closureNode = adoptChild(closureNode);
+      this.sequenceNode = adoptChild(sequenceNode);
+      this.filter = filter;
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Closure closure = asClosure(closureNode.evalObject(frame));
+      Sequence sequence = asSequence(sequenceNode.evalObject(frame));
+      if (filter) {
+        return new FilterSequence(sequence, closure);
+      }
+      return new MapSequence(sequence, closure);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static final class ReduceSink extends Sink {
+    private final Closure closure;
+    private final Budget budget;
+    Object accumulator;
+    
+    ReduceSink(Closure closure, Budget budget, Object accumulator) {
+      this.closure = closure;
+      this.budget = budget;
+      this.accumulator = accumulator;
+    }
+    
+    @Override
+    void accept(Object value) {
+      accumulator = closure.call(budget, accumulator, value);
+    }
+    
+    @Override
+    void acceptInt(int value) {
+      Object accumulator = this.accumulator;
+      if (accumulator instanceof Integer) {
+        this.accumulator = closure.callInt(budget, (Integer)accumulator, value);
+        return;
+      }
+      accept((Object)value);
+    }
+  }
+  
+  static class ReduceNode extends GenericNode {
+    @Child
+    private final Node closureNode;
+    @Child
+    private final Node initNode;
+    @Child
+    private final Node sequenceNode;
+    
+    ReduceNode(Node closureNode, Node initNode, Node sequenceNode) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.closureNode = adoptChild(closureNode);
+      this.initNode = adoptChild(initNode);
+      this.sequenceNode = adoptChild(sequenceNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Closure closure = asClosure(closureNode.evalObject(frame));
+      Object init = initNode.eval(frame);
+      Budget budget = budget(frame);
+      ReduceSink sink = new ReduceSink(closure, budget, init);
+      asSequence(sequenceNode.evalObject(frame)).forEach(sink, budget);
+      return sink.accumulator;
+    }
+  }
+  
+  static final class CountSink extends Sink {
+    int count;
+    
+    @Override
+    void accept(Object value) {
+      count++;
+    }
+    
+    @Override
+    void acceptInt(int value) {
+      count++;
+    }
+  }
+  
+  static class CountNode extends Node {
+    @Child
+    private final Node sequenceNode;
+    
+    CountNode(Node sequenceNode) {
+      super(TYPE_STATE_INT);
+      this.sequenceNode = adoptChild(sequenceNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      return evalInt(frame);
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) {
+      CountSink sink = new CountSink();
+      asSequence(sequenceNode.evalObject(frame)).forEach(sink, budget(frame));
+      return sink.count;
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class ToListNode extends Node {
+    @Child
+    private final Node sequenceNode;
+    
+    ToListNode(Node sequenceNode) {
+      super(TYPE_STATE_OBJECT);
+      this.sequenceNode = adoptChild(sequenceNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      final Budget budget = budget(frame);
+      final List.Builder builder = new List.Builder();
+      asSequence(sequenceNode.evalObject(frame)).forEach(new Sink() {
+        @Override
+        void accept(Object value) {
+          budget.allocate(1);
+          builder.append(value);
+        }
+      }, budget);
+      return builder.toList();
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class LambdaNode extends Node {
+    private final CallTarget callTarget;
+    private final boolean captures;
+    
+    LambdaNode(CallTarget callTarget, boolean captures) {
+      super(TYPE_STATE_OBJECT);
+      this.callTarget = callTarget;
+      this.captures = captures;
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      // if the closure does not escape, the materialized frame is removed by escape analysis
+      budget(frame).allocate(1);
+      return new Closure(callTarget, captures? frame.materialize(): null, globals(frame));
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
+  }
+  
+  static class ClosureCallNode extends GenericNode {
+    @Child
+    private final Node closureNode;
+    @Children
+    private final Node[] argumentNodes;
+    
+    ClosureCallNode(Node closureNode, Node[] argumentNodes) {
+      super(TYPE_STATE_OBJECT);
+      this.closureNode = adoptChild(closureNode);
+      this.argumentNodes = adoptChildren(argumentNodes);
+    }
+    
+    @Override
+    @ExplodeLoop
+    Object evalObject(VirtualFrame frame) {
+      Object value = closureNode.evalObject(frame);
+      if (!(value instanceof Closure)) {
+        throw notAClosure(value);
+      }
+      Closure closure = (Closure)value;
+      Object[] arguments = new Object[argumentNodes.length];
+      for(int i=0; i<argumentNodes.length; i++) {
+        arguments[i] = argumentNodes[i].eval(frame);
+      }
+      return closure.callTarget.call(frame.pack(), new ClosureArguments(arguments, closure.enclosingFrame, budget(frame), globals(frame)));
+    }
+  }
+  
+  @ExplodeLoop
+  static Frame enclosingFrame(VirtualFrame frame, int depth) {
+    Frame enclosingFrame = frame;
+    for(int i = 0; i < depth; i++) {
+      Arguments arguments = enclosingFrame.getArguments(Arguments.class);
+      if (arguments instanceof IntArrayArguments) {
+        enclosingFrame = ((IntArrayArguments)arguments).enclosingFrame;
+      } else {
+        enclosingFrame = ((ClosureArguments)arguments).enclosingFrame;
+      }
+    }
+    return enclosingFrame;
+  }
+  
+  static class CapturedVarLoadNode extends Node {
+    private final int depth;
+    private final FrameSlot slot;
+    
+    CapturedVarLoadNode(int depth, FrameSlot slot) {
+      super(TYPE_STATE_UNINITIALIZED);
+      this.depth = depth;
+      this.slot = slot;
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      return enclosingFrame(frame, depth).getValue(slot);
+    }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) throws UnexpectedResultException {
+      Frame enclosingFrame = enclosingFrame(frame, depth);
+      try {
+        return enclosingFrame.getBoolean(slot);
+      } catch (FrameSlotTypeException e) {
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(enclosingFrame.getValue(slot));
+      }
+    }
+    
+    @Override
+    int evalInt(VirtualFrame frame) throws UnexpectedResultException {
+      Frame enclosingFrame = enclosingFrame(frame, depth);
       try {
-        frame.setObject(slot, value);
+        return enclosingFrame.getInt(slot);
       } catch (FrameSlotTypeException e) {
-        FrameUtil.setObjectSafe(frame, slot, value);
-        return List.empty();
+        setTypeState(TYPE_STATE_OBJECT);
+        throw unexpectedResult(enclosingFrame.getValue(slot));
+      }
+    }
+  }
+  
+  static class CapturedVarStoreNode extends Node {
+    private final int depth;
+    private final FrameSlot slot;
+    @Child
+    private final Node valueNode;
+    
+    CapturedVarStoreNode(int depth, FrameSlot slot, Node valueNode) {
+      super(TYPE_STATE_OBJECT);
+      this.depth = depth;
+      this.slot = slot;
+      this.valueNode = adoptChild(valueNode);
+    }
+    
+    @Override
+    Object evalObject(VirtualFrame frame) {
+      Object value = valueNode.eval(frame);
+      Frame enclosingFrame = enclosingFrame(frame, depth);
+      if (value instanceof Integer) {
+        FrameUtil.setIntSafe(enclosingFrame, slot, (Integer)value);
+      } else if (value instanceof Boolean) {
+        FrameUtil.setBooleanSafe(enclosingFrame, slot, (Boolean)value);
+      } else {
+        FrameUtil.setObjectSafe(enclosingFrame, slot, value);
       }
       return List.empty();
     }
+    
+    @Override
+    boolean evalBoolean(VirtualFrame frame) {
+      throw invalidType();
+    }
+    @Override
+    int evalInt(VirtualFrame frame) {
+      throw invalidType();
+    }
   }
   
   static int typeStateForResult(Object result) {
@@ -1072,14 +3563,364 @@ public class Interpreter {
   @SlowPath static RuntimeException rangeLastValueMustBeAnInteger() {
     throw new RuntimeException("range last value must be an integer");
   }
+  @SlowPath static RuntimeException warmupCountMustBeAnInteger() {
+    throw new RuntimeException("warmup count must be an integer");
+  }
+  @SlowPath static RuntimeException benchIterationsMustBeAnInteger() {
+    throw new RuntimeException("bench iterations must be a positive integer");
+  }
+  @SlowPath static RuntimeException channelCapacityMustBeAnInteger() {
+    throw new RuntimeException("channel capacity must be a positive integer");
+  }
+  @SlowPath static RuntimeException uninitializedGlobal(Symbol name) {
+    throw new RuntimeException("global " + name + " is not initialized");
+  }
+  @SlowPath static RuntimeException notAClosure(Object value) {
+    throw new RuntimeException("call: " + value + " is not a closure");
+  }
+  @SlowPath static RuntimeException arrayLengthMustBeAnInteger() {
+    throw new RuntimeException("array length must be a positive or zero integer");
+  }
+  @SlowPath static RuntimeException arrayIndexMustBeAnInteger() {
+    throw new RuntimeException("array index must be an integer");
+  }
+  @SlowPath static RuntimeException stringIndexMustBeAnInteger() {
+    throw new RuntimeException("string index must be an integer");
+  }
+  @SlowPath static RuntimeException unknownSymbol(Symbol name) {
+    throw new RuntimeException("unknown symbol " + name);
+  }
+  @SlowPath static RuntimeException unknownFunction(Symbol name) {
+    throw new RuntimeException("unknown function " + name);
+  }
+  @SlowPath static RuntimeException invalidResultType(Symbol name, String expected, Object result) {
+    throw new RuntimeException("result of " + name + " should be " + expected + ", instead of " + result);
+  }
   @SlowPath static RuntimeException invalidType() {
     throw new RuntimeException("invalid type");
   }
   
-  final HashMap<Symbol,CallTarget> callTargetMap = new HashMap<>();
+  // maximum number of function definitions shared between the forks
+  private static final int CODE_CACHE_SIZE = 1024;
   
+  private final Interpreter parent;  // null if the interpreter is not a fork
+  final ConcurrentHashMap<Symbol,Function> functionMap = new ConcurrentHashMap<>();
+  // functions by definition (name, parameters and body), null in a fork,
+  // bounded because the definitions come from the scripts of the contexts
+  private final LruCache<List,Function> codeCache;
+  // slots of the function names and of the global names in the tables of the contexts,
+  // null in a fork, the ASTs are shared by all the forks
+  private final ConcurrentHashMap<Symbol,Integer> functionSlots;
+  private final ConcurrentHashMap<Symbol,Integer> globalSlots;
+  // functions by slot, filled lazily by the call sites executed by several interpreters
+  private volatile Function[] functionTable = new Function[0];
+  final Globals globals;
+  private final ArrayList<List> warmups = new ArrayList<>();
+  private boolean eagerDefinitions;
+  private boolean compilationReport;
+  private ExecutorService taskExecutor;  // lazily created by spawn
+  final Telemetry telemetry;
+  
+  /** Creates an interpreter.
+   *  Once a source is interpreted, its functions can be called by several threads,
+   *  the compiled code of a function is shared by all threads.
+   */
   public Interpreter() {
-    // do nothing for now
+    this(null, Output.stdout());
+  }
+  
+  private Interpreter(Interpreter parent, Output output) {
+    this.parent = parent;
+    this.codeCache = (parent == null)? new LruCache<List,Function>(CODE_CACHE_SIZE): null;
+    this.functionSlots = (parent == null)? new ConcurrentHashMap<Symbol,Integer>(): null;
+    this.globalSlots = (parent == null)? new ConcurrentHashMap<Symbol,Integer>(): null;
+    this.globals = (parent == null)? new Globals(this, output): parent.globals.copy(this, output);
+    this.telemetry = (parent == null)? new Telemetry(): parent.telemetry;
+  }
+  
+  /** Creates an execution context that sees the functions of this interpreter
+   *  and shares their compiled code, but has its own definitions, its own copy
+   *  of the global variables and its own destination of print.
+   *  The arrays, maps and channels referenced by the global variables are copied,
+   *  so the fork and this interpreter can modify them without seeing each other's changes.
+   *  A def with the same name, parameters and body as a def already evaluated
+   *  by this interpreter or by another fork reuses the compiled code of the function.
+   *  Several forks can run concurrently.
+   * @param output the destination of print of the fork.
+   * @return a new interpreter.
+   */
+  public Interpreter fork(Output output) {
+    Interpreter fork = new Interpreter(this, Objects.requireNonNull(output));
+    fork.eagerDefinitions = eagerDefinitions;
+    return fork;
+  }
+  
+  /** Creates the call target of all functions when they are defined
+   *  instead of when they are called the first time.
+   * @param eagerDefinitions true if all definitions are eager.
+   * 
+   * @see #interpret(Path)
+   */
+  public void setEagerDefinitions(boolean eagerDefinitions) {
+    this.eagerDefinitions = eagerDefinitions;
+  }
+  
+  /** Sets the destination of print, by default the standard output.
+   * @param output the destination of print.
+   */
+  public void setOutput(Output output) {
+    globals.output = Objects.requireNonNull(output);
+  }
+  
+  /** Returns the destination of print.
+   * @return the destination of print.
+   */
+  public Output getOutput() {
+    return globals.output;
+  }
+  
+  /** Returns the counters of the specializations and the compilations of this interpreter.
+   * @return the telemetry of this interpreter.
+   * 
+   * @see Telemetry#register()
+   */
+  public Telemetry getTelemetry() {
+    return telemetry;
+  }
+  
+  /** Prints which call targets were compiled at the end of {@link #interpret(Path)}.
+   * @param compilationReport true to print the report.
+   */
+  public void setCompilationReport(boolean compilationReport) {
+    this.compilationReport = compilationReport;
+  }
+  
+  /** Returns true if the compilation report is printed.
+   * @return true if the compilation report is printed.
+   * 
+   * @see #setCompilationReport(boolean)
+   */
+  public boolean isCompilationReport() {
+    return compilationReport;
+  }
+  
+  /** Registers an expression that will be evaluated count times before the main script starts,
+   *  i.e. before the first top-level form which is not a def, an eager def or a top-level var,
+   *  so the expression can use the functions and the globals defined before.
+   * @param count number of evaluations.
+   * @param expression a ninal expression, by example "(fib 20)".
+   */
+  public void addWarmup(int count, String expression) {
+    List list = new Parser(expression.getBytes(StandardCharsets.US_ASCII)).parseList();
+    warmups.add(List.of(new Symbol("warmup"), count, list));
+  }
+  
+  /** Returns the function defined with the name.
+   *  The returned function can be called several times from Java.
+   * @param name the name of the function.
+   * @return the function defined with the name.
+   * @throws RuntimeException if there is no function with that name.
+   */
+  public Function lookup(Symbol name) {
+    return lookupFunction(name);
+  }
+  
+  /** Calls the function defined with the name.
+   * @param name the name of the function.
+   * @param arguments the arguments of the call.
+   * @return the result of the call.
+   * 
+   * @see #lookup(Symbol)
+   */
+  public Object invoke(Symbol name, Object... arguments) {
+    return lookupFunction(name).invoke(arguments);
+  }
+  
+  /** Calls the function defined with the name that takes ints and returns an int.
+   * @param name the name of the function.
+   * @param arguments the arguments of the call.
+   * @return the result of the call.
+   * 
+   * @see Function#invokeInt(int...)
+   */
+  public int invokeInt(Symbol name, int... arguments) {
+    return lookupFunction(name).invokeInt(arguments);
+  }
+  
+  /** Calls the function defined with the name that takes ints and returns a boolean.
+   * @param name the name of the function.
+   * @param arguments the arguments of the call.
+   * @return the result of the call.
+   * 
+   * @see Function#invokeBoolean(int...)
+   */
+  public boolean invokeBoolean(Symbol name, int... arguments) {
+    return lookupFunction(name).invokeBoolean(arguments);
+  }
+  
+  /** Prints for each function if its call target is created and if it has been compiled.
+   * @param out the stream to print to.
+   */
+  public void printCompilationReport(PrintStream out) {
+    for(Function function: functionMap.values()) {
+      out.println(function.name.getName() + ": " + function.getCompilationStatus());
+    }
+  }
+  
+  @SlowPath
+  Task spawn(final CallTarget callTarget, final ArrayArguments arguments) {
+    return new Task(getTaskExecutor().submit(new Callable<Object>() {
+      @Override
+      public Object call() {
+        try {
+          return callTarget.call(null, arguments);
+        } finally {
+          if (Profiler.MODE != Profiler.OFF) {
+            Profiler.endTask();
+          }
+        }
+      }
+    }));
+  }
+  
+  private synchronized ExecutorService getTaskExecutor() {
+    if (parent != null) {  // the forks share the threads of the root interpreter
+      return parent.getTaskExecutor();
+    }
+    if (taskExecutor == null) {
+      taskExecutor = newTaskExecutor();
+    }
+    return taskExecutor;
+  }
+  
+  private static ExecutorService newTaskExecutor() {
+    // use virtual threads if the platform provides them
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ninal-task");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+  }
+  
+  Function lookupFunction(Symbol name) {
+    Function function = findFunction(name);
+    if (function == null) {
+      throw unknownFunction(name);
+    }
+    return function;
+  }
+  
+  boolean isFork() {
+    return parent != null;
+  }
+  
+  private Interpreter root() {
+    Interpreter interpreter = this;
+    while(interpreter.parent != null) {
+      interpreter = interpreter.parent;
+    }
+    return interpreter;
+  }
+  
+  int functionSlot(Symbol name) {
+    return slot(root().functionSlots, name);
+  }
+  
+  int globalSlot(Symbol name) {
+    return slot(root().globalSlots, name);
+  }
+  
+  /* the slots are numbered in order, the same name has the same slot in all the forks */
+  private static int slot(ConcurrentHashMap<Symbol,Integer> slots, Symbol name) {
+    Integer slot = slots.get(name);
+    if (slot != null) {
+      return slot;
+    }
+    synchronized(slots) {
+      slot = slots.get(name);
+      if (slot == null) {
+        slot = slots.size();
+        slots.put(name, slot);
+      }
+      return slot;
+    }
+  }
+  
+  /* the call target of the function of the slot, the function is looked up by name
+   * the first time and each time it is redefined, see CallSite */
+  CallTarget callTarget(int slot, Symbol name) {
+    Function[] functionTable = this.functionTable;
+    if (slot < functionTable.length) {
+      Function function = functionTable[slot];
+      if (function != null && !function.isRedefined()) {
+        return function.getCallTarget();
+      }
+    }
+    return bindFunction(slot, name).getCallTarget();
+  }
+  
+  @SlowPath
+  private synchronized Function bindFunction(int slot, Symbol name) {
+    Function function = lookupFunction(name);
+    Function[] functionTable = this.functionTable;
+    if (slot >= functionTable.length) {
+      functionTable = Arrays.copyOf(functionTable, Math.max(slot + 1, 2 * functionTable.length));
+      functionTable[slot] = function;
+      this.functionTable = functionTable;
+    } else {
+      functionTable[slot] = function;
+    }
+    return function;
+  }
+  
+  /* defines a function, the call target is shared with the functions
+   * that have the same definition, see Function */
+  void define(Symbol name, List parameters, Object body, boolean eager) {
+    Interpreter root = root();
+    LruCache<List,Function> codeCache = root.codeCache;
+    List definition = List.of(name, parameters, body);
+    Function function = codeCache.get(definition);
+    if (function == null) {
+      // owned by the root interpreter, so the code cache does not keep a fork alive
+      Function newFunction = root.new Function(name, parameters, body);
+      function = codeCache.putIfAbsent(definition, newFunction);
+      if (function == null) {
+        function = newFunction;
+      }
+    }
+    if (function.owner() != this || function.isRedefined()) {  // share the call target
+      function = new Function(function);
+    }
+    Function oldFunction = functionMap.put(name, function);
+    if (oldFunction != null && oldFunction != function) {  // the call sites bound to the old function must bind again
+      oldFunction.redefined();
+    }
+    if (eager) {
+      function.getCallTarget();
+    }
+  }
+  
+  /* returns null if the function is not defined, a function of the parent is seen
+   * through a function of this interpreter, see Function */
+  Function findFunction(Symbol name) {
+    Function function = functionMap.get(name);
+    if (function != null || parent == null) {
+      return function;
+    }
+    Function parentFunction = parent.findFunction(name);
+    if (parentFunction == null) {
+      return null;
+    }
+    function = new Function(parentFunction);
+    Function existing = functionMap.putIfAbsent(name, function);
+    return (existing != null)? existing: function;
   }
   
   private static void checkArguments(List list, String... descriptions) {
@@ -1119,21 +3960,26 @@ public class Interpreter {
     }
   }
   
-  private Node createAST(Object value, FrameDescriptor frameDescriptor) {
+  private Node createAST(Object value, Scope scope) {
     if (value instanceof List) {
-      return createListAST((List)value, frameDescriptor);
+      return createListAST((List)value, scope);
     }
     if (value instanceof String) {
       return createLiteralString((String)value);
     }
     if (value instanceof Symbol) {
       Symbol symbol = (Symbol)value;
-      FrameSlot slot = frameDescriptor.findFrameSlot(symbol);
-      System.out.println(frameDescriptor.getSlots());
-      if (slot == null) {  // not a local variable
-        throw new RuntimeException("unknown local symbol " + symbol);
+      if (Trace.PARSE >= Trace.DEBUG) {
+        Trace.log(Trace.Category.PARSE, symbol + " in " + scope.frameDescriptor.getSlots());
+      }
+      Binding binding = scope.resolve(symbol);
+      if (binding == null) {  // not a local variable
+        return createGlobalLoad(symbol);  // checked when executed, the AST can be shared by several contexts
       }
-      return createVarLoad(slot);
+      if (binding.depth != 0) {  // a local variable of an enclosing function
+        return createCapturedVarLoad(binding.depth, binding.slot);
+      }
+      return createVarLoad(binding.slot);
     }
     if (value instanceof Number) {
       return createLiteralNumber((Number)value);
@@ -1141,88 +3987,271 @@ public class Interpreter {
     throw new AssertionError("unknown value " + value);
   }
   
-  private Node createListAST(List list, FrameDescriptor frameDescriptor) {
+  private Node createListAST(List list, Scope scope) {
     if (list.isEmpty()) {
-      return createLiteralList(createChildren(list, 0, frameDescriptor));
+      return createLiteralList(createChildren(list, 0, scope));
     }
     Object first = list.get(0);
+    if (isLambda(first)) {  // direct call
+      return createInlinedLambda((List)first, list, 1, scope);
+    }
     if (!(first instanceof Symbol)) {
-      return createLiteralList(createChildren(list, 0, frameDescriptor));
+      return createLiteralList(createChildren(list, 0, scope));
     }
     Symbol symbol = (Symbol)first;
     switch(symbol.getName()) {
-    case "def": {
-      checkArguments(list, "symbol", "parameters", "statement");
-      Symbol defSymbol = (Symbol)list.get(1);
-      FrameDescriptor functionFrameDescriptor = new FrameDescriptor();
-      List parameters = (List)list.get(2);
-      ParameterNode[] parameterNodes = new ParameterNode[parameters.size()];
-      for(int i = 0; i < parameters.size(); i++) {
-        Symbol parameter = (Symbol) parameters.get(i);
-        parameterNodes[i] = new ParameterNode(functionFrameDescriptor.addFrameSlot(parameter, FrameSlotKind.Object));
+    case "def":
+      return createDefinition(list, eagerDefinitions);
+    case "eager": {
+      checkArguments(list, "value");
+      Object definition = list.get(1);
+      if (!isDefinition(definition)) {
+        throw new RuntimeException("eager: invalid argument 0, should be a def, instead of " + definition);
       }
-      Node body = createAST(list.get(3), functionFrameDescriptor);
-      return createDef(defSymbol, functionFrameDescriptor, parameterNodes, body);
+      return createDefinition((List)definition, true);
     }
+    case "warmup":
+      checkArguments(list, "value", "statement");
+      return createWarmup(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "bench":
+      checkArguments(list, "symbol", "value", "statement");
+      return createBench((Symbol)list.get(1), createAST(list.get(2), scope), createAST(list.get(3), scope));
     case "block": {
+      Scope blockScope = new Scope(scope);
       Node[] nodes = new Node[list.size() - 1];
       for(int i = 0; i < nodes.length; i++) {
-        nodes[i] = createAST(list.get(i + 1), frameDescriptor);
+        nodes[i] = createAST(list.get(i + 1), blockScope);
       }
       return createBlock(nodes);
     }
     case "if":
       checkArguments(list, "value", "statement", "statement");
-      return createIf(createAST(list.get(1), frameDescriptor),
-          createAST(list.get(2), frameDescriptor),
-          createAST(list.get(3), frameDescriptor));
+      return createIf(createAST(list.get(1), scope),
+          createAST(list.get(2), scope),
+          createAST(list.get(3), scope));
     case "range": {
       checkArguments(list, "symbol", "value", "value", "value");
       Symbol local = (Symbol)list.get(1);
-      Node firstNode = createAST(list.get(2), frameDescriptor);
-      Node lastNode = createAST(list.get(3), frameDescriptor);
-      FrameSlot slot = frameDescriptor.addFrameSlot(local, FrameSlotKind.Int);
-      return createRange(slot, firstNode, lastNode,
-          createAST(list.get(4), frameDescriptor));
+      Node firstNode = createAST(list.get(2), scope);
+      Node lastNode = createAST(list.get(3), scope);
+      Scope rangeScope = new Scope(scope);
+      FrameSlot slot = rangeScope.addSlot(local, FrameSlotKind.Int);
+      Node bodyNode = createAST(list.get(4), rangeScope);
+      return createRange(slot, firstNode, lastNode, bodyNode);
     }
     case "var": {
       checkArguments(list, "symbol", "value");
       Symbol varSymbol = (Symbol)list.get(1);
-      FrameSlot slot = frameDescriptor.addFrameSlot(varSymbol, FrameSlotKind.Object);
-      return createVarStore(slot, createAST(list.get(2), frameDescriptor));
+      FrameSlot slot = scope.addSlot(varSymbol, FrameSlotKind.Object);
+      return createVarStore(slot, createAST(list.get(2), scope));
     }
     case "set": {
       checkArguments(list, "symbol", "value");
       Symbol varSymbol = (Symbol)list.get(1);
-      FrameSlot slot = frameDescriptor.findFrameSlot(varSymbol);
-      if (slot == null) {
-        throw new RuntimeException("unknown local symbol " + varSymbol);
+      Node valueNode = createAST(list.get(2), scope);
+      Binding binding = scope.resolve(varSymbol);
+      if (binding == null) {  // not a local variable
+        return createGlobalStore(varSymbol, valueNode, false);
       }
-      return createVarStore(slot, createAST(list.get(2), frameDescriptor));
+      if (binding.depth != 0) {  // a local variable of an enclosing function
+        return createCapturedVarStore(binding.depth, binding.slot, valueNode);
+      }
+      return createVarStore(binding.slot, valueNode);
     }
     case "print":
       checkArguments(list, "value");
-      return createPrint(createAST(list.get(1), frameDescriptor));
+      return createPrint(createAST(list.get(1), scope));
+    case "spawn": {
+      if (list.size() < 2) {
+        throw new RuntimeException("invalid number of arguments for " + symbol + ' ' + list);
+      }
+      checkArgument(symbol, 0, "symbol", list.get(1));
+      return createSpawn((Symbol)list.get(1), createChildren(list, 2, scope));
+    }
+    case "join":
+      checkArguments(list, "value");
+      return createJoin(createAST(list.get(1), scope));
+    case "channel":
+      checkArguments(list, "value");
+      return createChannel(createAST(list.get(1), scope));
+    case "send":
+      checkArguments(list, "value", "value");
+      return createSend(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "receive":
+      checkArguments(list, "value");
+      return createReceive(createAST(list.get(1), scope));
     case "+": case "-": case "*": case "/":
     case "<": case "<=": case ">": case ">=":
       checkArguments(list, "value", "value");
       BinOp binOp = BinOp.getBinOp(symbol.getName());
-      return createBinOp(binOp, createAST(list.get(1), frameDescriptor), createAST(list.get(2), frameDescriptor));
+      return createBinOp(binOp, createAST(list.get(1), scope), createAST(list.get(2), scope));
+      
+    case "array":
+      checkArguments(list, "value");
+      return createArrayNew(createAST(list.get(1), scope));
+    case "aget":
+      checkArguments(list, "value", "value");
+      return createArrayGet(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "aset":
+      checkArguments(list, "value", "value", "value");
+      return createArraySet(createAST(list.get(1), scope), createAST(list.get(2), scope), createAST(list.get(3), scope));
+    case "alen":
+      checkArguments(list, "value");
+      return createArrayLength(createAST(list.get(1), scope));
+    case "map-new":
+      checkArguments(list);
+      return createMapNew();
+    case "map-get":
+      checkArguments(list, "value", "value");
+      return createMapGet(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "map-put":
+      checkArguments(list, "value", "value", "value");
+      return createMapPut(createAST(list.get(1), scope), createAST(list.get(2), scope), createAST(list.get(3), scope));
+    case "map-size":
+      checkArguments(list, "value");
+      return createMapSize(createAST(list.get(1), scope));
+    case "concat":
+      checkArguments(list, "value", "value");
+      return createConcat(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "length":
+      checkArguments(list, "value");
+      return createLength(createAST(list.get(1), scope));
+    case "substring":
+      checkArguments(list, "value", "value", "value");
+      return createSubstring(createAST(list.get(1), scope), createAST(list.get(2), scope), createAST(list.get(3), scope));
+    case "str":
+      checkArguments(list, "value");
+      return createStr(createAST(list.get(1), scope));
+    case "range-seq":
+      checkArguments(list, "value", "value");
+      return createRangeSequence(createAST(list.get(1), scope), createAST(list.get(2), scope));
+    case "map":
+    case "filter":
+      checkArguments(list, "value", "value");
+      return createMapSequence(createAST(list.get(1), scope), createAST(list.get(2), scope), symbol.getName().equals("filter"));
+    case "reduce":
+      checkArguments(list, "value", "value", "value");
+      return createReduce(createAST(list.get(1), scope), createAST(list.get(2), scope), createAST(list.get(3), scope));
+    case "count":
+      checkArguments(list, "value");
+      return createCount(createAST(list.get(1), scope));
+    case "to-list":
+      checkArguments(list, "value");
+      return createToList(createAST(list.get(1), scope));
+    case "read-ints":
+    case "read-lines":
+      checkArguments(list, "value");
+      return createReadFile(createAST(list.get(1), scope), symbol.getName().equals("read-lines"));
+    case "lambda":
+      checkArguments(list, "parameters", "statement");
+      return createLambda((List)list.get(1), list.get(2), scope);
+    case "call": {
+      if (list.size() < 2) {
+        throw new RuntimeException("invalid number of arguments for " + symbol + ' ' + list);
+      }
+      Object function = list.get(1);
+      if (isLambda(function)) {  // direct call
+        return createInlinedLambda((List)function, list, 2, scope);
+      }
+      return createClosureCall(createAST(function, scope), createChildren(list, 2, scope));
+    }
       
     default:  // variable local access or function call
-      FrameSlot slot = frameDescriptor.findFrameSlot(symbol);
+      FrameSlot slot = scope.find(symbol);
       if (slot == null) {
         // not a local variable so it's a method call
-        return createFunCall(symbol, createChildren(list, 1, frameDescriptor));
+        return createFunCall(symbol, createChildren(list, 1, scope));
       }
-      return createLiteralList(createChildren(list, 0, frameDescriptor));
+      return createLiteralList(createChildren(list, 0, scope));
+    }
+  }
+  
+  private Node createLambda(List parameters, Object body, Scope scope) {
+    Scope lambdaScope = new Scope(new FrameDescriptor(), scope);
+    ParameterNode[] parameterNodes = new ParameterNode[parameters.size()];
+    for(int i = 0; i < parameterNodes.length; i++) {
+      parameterNodes[i] = new ParameterNode(lambdaScope.addSlot((Symbol)parameters.get(i), FrameSlotKind.Object));
+    }
+    Node bodyNode = createAST(body, lambdaScope);
+    FunctionNode functionNode = new FunctionNode(telemetry, new Symbol("lambda"), parameterNodes, bodyNode);
+    CallTarget callTarget = Truffle.getRuntime().createCallTarget(functionNode, lambdaScope.frameDescriptor);
+    telemetry.callTargetCreated();
+    return new LambdaNode(callTarget, lambdaScope.captures());
+  }
+  
+  /* A lambda called directly, ((lambda (x) ...) 3), is inlined:
+   * the arguments are stored in new slots of the current frame
+   * so no closure and no frame are allocated.
+   */
+  private Node createInlinedLambda(List lambda, List call, int offset, Scope scope) {
+    checkArguments(lambda, "parameters", "statement");
+    List parameters = (List)lambda.get(1);
+    if (parameters.size() != call.size() - offset) {
+      throw new RuntimeException("invalid number of arguments for lambda " + call);
+    }
+    Scope inlinedScope = new Scope(scope);
+    Node[] nodes = new Node[parameters.size() + 1];
+    for(int i = 0; i < parameters.size(); i++) {
+      Node argumentNode = createAST(call.get(offset + i), scope);
+      FrameSlot slot = inlinedScope.addSlot((Symbol)parameters.get(i), FrameSlotKind.Object);
+      nodes[i] = createVarStore(slot, argumentNode);
+    }
+    nodes[parameters.size()] = createAST(lambda.get(2), inlinedScope);
+    return createBlock(nodes);
+  }
+  
+  private static boolean isLambda(Object value) {
+    if (!(value instanceof List)) {
+      return false;
+    }
+    List list = (List)value;
+    return !list.isEmpty() && new Symbol("lambda").equals(list.get(0));
+  }
+  
+  private Node createDefinition(List list, boolean eager) {
+    checkArguments(list, "symbol", "parameters", "statement");
+    // the body AST is created lazily, see Function
+    return createDef((Symbol)list.get(1), (List)list.get(2), list.get(3), eager);
+  }
+  
+  private Node createGlobalDefinition(List list, Scope scope) {
+    checkArguments(list, "symbol", "value");
+    Symbol symbol = (Symbol)list.get(1);
+    Node valueNode = createAST(list.get(2), scope);
+    return createGlobalStore(symbol, valueNode, true);
+  }
+  
+  private static boolean isGlobalDefinition(List list) {
+    return !list.isEmpty() && new Symbol("var").equals(list.get(0));
+  }
+  
+  /** Returns true if a top-level form is a definition, a def, an eager def or a top-level var.
+   *  The definitions at the start of a script are evaluated before the warmups.
+   *  This method is public because the tools of the package fr.umlv.ninal also
+   *  separate the definitions of a script from its other forms.
+   * @param list a top-level form.
+   * @return true if the form is a definition.
+   */
+  public static boolean isTopLevelDefinition(List list) {
+    return isDefinition(list) || isGlobalDefinition(list);
+  }
+  
+  private static boolean isDefinition(Object value) {
+    if (!(value instanceof List)) {
+      return false;
+    }
+    List list = (List)value;
+    if (list.isEmpty() || !(list.get(0) instanceof Symbol)) {
+      return false;
     }
+    String name = ((Symbol)list.get(0)).getName();
+    return name.equals("def") || name.equals("eager");
   }
   
-  private Node[] createChildren(List list, int offset, FrameDescriptor frameDescriptor) {
+  private Node[] createChildren(List list, int offset, Scope scope) {
     Node[] nodes = new Node[list.size() - offset];
     for(int i=0; i<nodes.length; i++) {
-      nodes[i] = createAST(list.get(i + offset), frameDescriptor);
+      nodes[i] = createAST(list.get(i + offset), scope);
     }
     return nodes;
   }
@@ -1237,8 +4266,8 @@ public class Interpreter {
     return new LiteralListNode(nodes);
   }
   
-  private Node createDef(Symbol name, FrameDescriptor functionFrameDescriptor, ParameterNode[] parameterNodes, Node bodyNode) {
-    return new DefNode(name, functionFrameDescriptor, parameterNodes, bodyNode);
+  private static Node createDef(Symbol name, List parameters, Object body, boolean eager) {
+    return new DefNode(name, parameters, body, eager);
   }
   private static Node createBlock(Node[] nodes) {
     return new BlockNode(nodes);
@@ -1249,6 +4278,21 @@ public class Interpreter {
   private static Node createVarLoad(FrameSlot slot) {
     return new VarLoadNode(slot);
   }
+  private static Node createCapturedVarLoad(int depth, FrameSlot slot) {
+    return new CapturedVarLoadNode(depth, slot);
+  }
+  private static Node createCapturedVarStore(int depth, FrameSlot slot, Node valueNode) {
+    return new CapturedVarStoreNode(depth, slot, valueNode);
+  }
+  private static Node createClosureCall(Node closureNode, Node[] argumentNodes) {
+    return new ClosureCallNode(closureNode, argumentNodes);
+  }
+  private Node createGlobalStore(Symbol name, Node valueNode, boolean define) {
+    return new GlobalStoreNode(name, globalSlot(name), valueNode, define);
+  }
+  private Node createGlobalLoad(Symbol name) {
+    return new GlobalLoadNode(name, globalSlot(name));
+  }
   private static Node createIf(Node condition, Node trueNode, Node falseNode) {
     return new IfNode(condition, trueNode, falseNode);
   }
@@ -1258,8 +4302,83 @@ public class Interpreter {
   private static Node createPrint(Node node) {
     return new PrintNode(node);
   }
+  private static Node createArrayNew(Node lengthNode) {
+    return new ArrayNewNode(lengthNode);
+  }
+  private static Node createArrayGet(Node arrayNode, Node indexNode) {
+    return new ArrayGetNode(arrayNode, indexNode);
+  }
+  private static Node createArraySet(Node arrayNode, Node indexNode, Node valueNode) {
+    return new ArraySetNode(arrayNode, indexNode, valueNode);
+  }
+  private static Node createArrayLength(Node arrayNode) {
+    return new ArrayLengthNode(arrayNode);
+  }
+  private static Node createMapNew() {
+    return new MapNewNode();
+  }
+  private static Node createMapGet(Node mapNode, Node keyNode) {
+    return new MapGetNode(mapNode, keyNode);
+  }
+  private static Node createMapPut(Node mapNode, Node keyNode, Node valueNode) {
+    return new MapPutNode(mapNode, keyNode, valueNode);
+  }
+  private static Node createMapSize(Node mapNode) {
+    return new MapSizeNode(mapNode);
+  }
+  private static Node createConcat(Node leftNode, Node rightNode) {
+    return new ConcatNode(leftNode, rightNode);
+  }
+  private static Node createLength(Node stringNode) {
+    return new LengthNode(stringNode);
+  }
+  private static Node createSubstring(Node stringNode, Node startNode, Node endNode) {
+    return new SubstringNode(stringNode, startNode, endNode);
+  }
+  private static Node createStr(Node valueNode) {
+    return new StrNode(valueNode);
+  }
+  private static Node createRangeSequence(Node firstNode, Node lastNode) {
+    return new RangeSequenceNode(firstNode, lastNode);
+  }
+  private static Node createMapSequence(Node closureNode, Node sequenceNode, boolean filter) {
+    return new MapSequenceNode(closureNode, sequenceNode, filter);
+  }
+  private static Node createReduce(Node closureNode, Node initNode, Node sequenceNode) {
+    return new ReduceNode(closureNode, initNode, sequenceNode);
+  }
+  private static Node createCount(Node sequenceNode) {
+    return new CountNode(sequenceNode);
+  }
+  private static Node createToList(Node sequenceNode) {
+    return new ToListNode(sequenceNode);
+  }
+  private static Node createReadFile(Node pathNode, boolean lines) {
+    return new ReadFileNode(pathNode, lines);
+  }
+  private static Node createWarmup(Node countNode, Node node) {
+    return new WarmupNode(countNode, node);
+  }
+  private static Node createBench(Symbol name, Node iterationsNode, Node node) {
+    return new BenchNode(name, iterationsNode, node);
+  }
   Node createFunCall(Symbol name, Node[] children) {
-    return new FunCallNode(name, children);
+    return new FunCallNode(name, functionSlot(name), children);
+  }
+  Node createSpawn(Symbol name, Node[] children) {
+    return new SpawnNode(name, functionSlot(name), children);
+  }
+  private static Node createJoin(Node taskNode) {
+    return new JoinNode(taskNode);
+  }
+  private static Node createChannel(Node capacityNode) {
+    return new ChannelNode(capacityNode);
+  }
+  private static Node createSend(Node channelNode, Node valueNode) {
+    return new SendNode(channelNode, valueNode);
+  }
+  private static Node createReceive(Node channelNode) {
+    return new ReceiveNode(channelNode);
   }
   static Node createBinOp(BinOp binOp, Node left, Node right) {
     switch(binOp) {
@@ -1274,21 +4393,138 @@ public class Interpreter {
   
   
   public void interpret(Path path) throws IOException {
-    byte[] data = Files.readAllBytes(path);
-    
+    interpret(Files.readAllBytes(path));
+  }
+  
+  public void interpret(Path path, Budget budget) throws IOException {
+    interpret(Files.readAllBytes(path), budget);
+  }
+  
+  /** Evaluates all the top-level forms of a source code, the functions defined
+   *  by the source code can then be called using {@link #lookup(Symbol)}.
+   * @param data the source code.
+   */
+  public void interpret(byte[] data) {
+    interpret(data, Budget.unlimited());
+  }
+  
+  /** Evaluates all the top-level forms of a source code with limits,
+   *  the functions called later from Java using {@link #lookup(Symbol)} have no limit.
+   * @param data the source code.
+   * @param budget the limits of the execution.
+   * @throws BudgetExceededException if a limit is reached.
+   */
+  public void interpret(byte[] data, Budget budget) {
     TruffleRuntime runtime = Truffle.getRuntime();
-    System.out.println("using " + runtime.getName());
+    if (Trace.COMPILATION >= Trace.INFO) {
+      Trace.log(Trace.Category.COMPILATION, "using " + runtime.getName());
+    }
     
-    Parser parser = new Parser(data);
-    while(!parser.end()) {
-      List list = parser.parseList();
-      
-      FrameDescriptor frameDescriptor = new FrameDescriptor();
-      Node node = createAST(list, frameDescriptor);
-      EvalNode evalNode = new EvalNode(node);
-      CallTarget callTarget = runtime.createCallTarget(evalNode, frameDescriptor);
-      callTarget.call();
+    Parser parser = new Parser(data, true);
+    boolean warmupDone = warmups.isEmpty();
+    try {
+      while(!parser.end()) {
+        List list = parser.parseList();
+        
+        if (!warmupDone && !isTopLevelDefinition(list)) {
+          warmup(runtime, budget);
+          warmupDone = true;
+        }
+        eval(runtime, list, budget);
+      }
+    } finally {
+      globals.output.flush();
+    }
+    
+    if (compilationReport) {
+      printCompilationReport(System.out);
+    }
+  }
+  
+  private static final Object[] NO_ARGUMENTS = new Object[0];
+  
+  private void eval(TruffleRuntime runtime, List list, Budget budget) {
+    prepare(runtime, list).call(null, new ArrayArguments(NO_ARGUMENTS, budget, globals));
+  }
+  
+  private void warmup(TruffleRuntime runtime, Budget budget) {
+    for(List warmup: warmups) {
+      eval(runtime, warmup, budget);
+    }
+  }
+  
+  /** Evaluates the expressions registered with {@link #addWarmup(int, String)}.
+   * @param budget the limits of the execution.
+   * @throws BudgetExceededException if a limit is reached.
+   */
+  public void warmup(Budget budget) {
+    try {
+      warmup(Truffle.getRuntime(), budget);
+    } finally {
+      globals.output.flush();
+    }
+  }
+  
+  /** Evaluates a top-level form with limits.
+   * @param list a top-level form.
+   * @param budget the limits of the execution.
+   * @throws BudgetExceededException if a limit is reached.
+   */
+  public void eval(List list, Budget budget) {
+    try {
+      eval(Truffle.getRuntime(), list, budget);
+    } finally {
+      globals.output.flush();
+    }
+  }
+  
+  CallTarget prepare(TruffleRuntime runtime, List list) {
+    Scope scope = new Scope(new FrameDescriptor(), null);
+    Node node;
+    if (isGlobalDefinition(list)) {  // a top-level var declares a global
+      node = createGlobalDefinition(list, scope);
+    } else {
+      node = createAST(list, scope);
+    }
+    EvalNode evalNode = new EvalNode(telemetry, node);
+    return runtime.createCallTarget(evalNode, scope.frameDescriptor);
+  }
+  
+  /** Evaluates the top-level forms of a source of an engine, the ASTs of the forms
+   *  are created once and shared by all the contexts of the engine.
+   * @param source a source created by {@link Engine#getSource(byte[])}.
+   * @param budget the limits of the execution.
+   * @throws BudgetExceededException if a limit is reached.
+   */
+  public void eval(Source source, Budget budget) {
+    TruffleRuntime runtime = Truffle.getRuntime();
+    try {
+      for(int i = 0; i < source.size(); i++) {
+        source.getCallTarget(runtime, this, i).call(null, new ArrayArguments(NO_ARGUMENTS, budget, globals));
+      }
+    } finally {
+      globals.output.flush();
     }
   }
   
+  /** Creates the AST of a top-level form once, the returned Runnable evaluates
+   *  the form each time it is run and keeps the specializations of its nodes
+   *  between runs. The output is flushed after each run, a run has no limit.
+   * @param list a top-level form.
+   * @return a Runnable that evaluates the form.
+   */
+  public Runnable prepare(List list) {
+    final CallTarget callTarget = prepare(Truffle.getRuntime(), list);
+    return new Runnable() {
+      @Override
+      public void run() {
+        try {
+          callTarget.call(null, new ArrayArguments(NO_ARGUMENTS, Budget.UNLIMITED, globals));
+        } finally {
+          globals.output.flush();
+        }
+      }
+    };
+  }
+  
 }
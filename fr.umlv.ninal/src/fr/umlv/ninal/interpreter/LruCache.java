@@ -0,0 +1,47 @@
+package fr.umlv.ninal.interpreter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A cache that keeps at most a fixed number of entries, when the cache is full
+ *  the least recently used entry is evicted.
+ *  The methods are synchronized, a cache can be used by several threads.
+ *
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+final class LruCache<K, V> {
+  private final LinkedHashMap<K, V> map;
+  
+  LruCache(final int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("invalid capacity " + capacity);
+    }
+    this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {  // in access order
+      private static final long serialVersionUID = 1L;
+      
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+  
+  synchronized V get(K key) {
+    return map.get(key);
+  }
+  
+  /* returns the value already associated with the key or null if the value is added */
+  synchronized V putIfAbsent(K key, V value) {
+    V existing = map.get(key);
+    if (existing != null) {
+      return existing;
+    }
+    map.put(key, value);
+    return null;
+  }
+  
+  synchronized int size() {
+    return map.size();
+  }
+}
@@ -0,0 +1,153 @@
+package fr.umlv.ninal.interpreter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/** Destination of the values printed by a script.
+ *  The values are formatted in a large buffer which is written to the channel
+ *  only when it is full or when the output is flushed, ints are formatted
+ *  without being boxed or converted to a String.
+ *  
+ * @see Interpreter#setOutput(Output)
+ */
+public final class Output {
+  private static final int BUFFER_SIZE = 1 << 16;
+  
+  private final WritableByteChannel channel;
+  private final ByteArrayOutputStream memory;  // null if not an in-memory output
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  
+  private Output(WritableByteChannel channel, ByteArrayOutputStream memory) {
+    this.channel = channel;
+    this.memory = memory;
+  }
+  
+  /** Creates an output that writes to a channel.
+   * @param channel a channel.
+   */
+  public Output(WritableByteChannel channel) {
+    this(channel, null);
+  }
+  
+  /** Returns an output on the standard output.
+   * @return an output on the standard output.
+   */
+  public static Output stdout() {
+    return new Output(new FileOutputStream(FileDescriptor.out).getChannel());
+  }
+  
+  /** Returns an output that writes in a file, the file is truncated if it already exists.
+   * @param path the path of the file.
+   * @return an output on a file.
+   * @throws IOException if the file can not be opened.
+   */
+  public static Output file(Path path) throws IOException {
+    return new Output(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+  }
+  
+  /** Returns an output that keeps what is printed in memory.
+   * @return an in-memory output.
+   * @see #getContent()
+   */
+  public static Output memory() {
+    ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    return new Output(Channels.newChannel(memory), memory);
+  }
+  
+  /** Returns what was printed on an in-memory output.
+   * @return what was printed.
+   * @throws IllegalStateException if the output is not an in-memory output.
+   */
+  public synchronized String getContent() {
+    if (memory == null) {
+      throw new IllegalStateException("not an in-memory output");
+    }
+    flush();
+    return new String(memory.toByteArray(), StandardCharsets.UTF_8);
+  }
+  
+  private void ensureCapacity(int length) {
+    if (buffer.remaining() < length) {
+      flush();
+    }
+  }
+  
+  public synchronized void printInt(int value) {
+    ensureCapacity(12);
+    ByteBuffer buffer = this.buffer;
+    long v = value;
+    if (v < 0) {
+      buffer.put((byte)'-');
+      v = -v;
+    }
+    long divisor = 1;
+    while(divisor * 10 <= v) {
+      divisor *= 10;
+    }
+    for(; divisor != 0; divisor /= 10) {
+      buffer.put((byte)('0' + (v / divisor) % 10));
+    }
+    buffer.put((byte)'\n');
+  }
+  
+  public synchronized void printBoolean(boolean value) {
+    ensureCapacity(6);
+    buffer.put(value? TRUE: FALSE);
+    buffer.put((byte)'\n');
+  }
+  private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+  
+  public synchronized void print(Object value) {
+    if (value instanceof Integer) {
+      printInt((Integer)value);
+      return;
+    }
+    if (value instanceof Boolean) {
+      printBoolean((Boolean)value);
+      return;
+    }
+    write(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+    ensureCapacity(1);
+    buffer.put((byte)'\n');
+  }
+  
+  private void write(byte[] bytes) {
+    ByteBuffer buffer = this.buffer;
+    int offset = 0;
+    while(offset != bytes.length) {
+      if (!buffer.hasRemaining()) {
+        flush();
+      }
+      int length = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+    }
+  }
+  
+  /** Writes the content of the buffer to the channel.
+   * @throws RuntimeException if an I/O error occurs.
+   */
+  public synchronized void flush() {
+    ByteBuffer buffer = this.buffer;
+    buffer.flip();
+    try {
+      while(buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("can not write the output", e);
+    } finally {
+      buffer.clear();
+    }
+  }
+}
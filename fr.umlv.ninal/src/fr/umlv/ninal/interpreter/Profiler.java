@@ -0,0 +1,334 @@
+package fr.umlv.ninal.interpreter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+
+import fr.umlv.ninal.lang.Symbol;
+
+/** Profiler of the ninal functions.
+ *
+ *  The mode is read once from the system property {@code ninal.profile},
+ *  {@code instrument} records the number of calls, the self time and the total time
+ *  of each function, {@code sample} periodically records the ninal call stack of
+ *  each running thread. The mode is a static final field so when the profiler is
+ *  disabled the test in {@link Interpreter.FunctionNode} is removed by the compiler.
+ *
+ *  Calls are recorded in a calling context tree per thread,
+ *  the report aggregates the tree per function and the collapsed stacks,
+ *  one line per call path followed by a weight, can be fed to flamegraph.pl.
+ */
+public final class Profiler {
+  public static final int OFF = 0;
+  public static final int INSTRUMENT = 1;
+  public static final int SAMPLE = 2;
+  
+  static final int MODE = mode();
+  
+  private static final int SAMPLE_PERIOD_MILLIS = 1;
+  
+  /** A node of the calling context tree. */
+  static final class CallNode {
+    final Symbol symbol;
+    final CallNode parent;
+    private final HashMap<Symbol, CallNode> children = new HashMap<>();
+    long calls;
+    long selfTime;   // nanoseconds in instrument mode, samples in sample mode
+    long totalTime;  // only in instrument mode
+    
+    // only used by the thread that owns the tree
+    long start;
+    long childTime;
+    
+    CallNode(Symbol symbol, CallNode parent) {
+      this.symbol = symbol;
+      this.parent = parent;
+    }
+    
+    CallNode child(Symbol symbol) {
+      // the sampler may read the children while the owner thread adds one
+      synchronized(children) {
+        CallNode child = children.get(symbol);
+        if (child == null) {
+          child = new CallNode(symbol, this);
+          children.put(symbol, child);
+        }
+        return child;
+      }
+    }
+    
+    ArrayList<CallNode> children() {
+      synchronized(children) {
+        return new ArrayList<>(children.values());
+      }
+    }
+  }
+  
+  /** The call stack of a thread, current is read by the sampler thread. */
+  static final class ThreadStack {
+    final CallNode root = new CallNode(null, null);
+    volatile CallNode current = root;
+  }
+  
+  private static final ArrayList<ThreadStack> STACKS = new ArrayList<>();
+  private static final CallNode FINISHED = new CallNode(null, null);  // the merged trees of the ended tasks
+  private static final ThreadLocal<ThreadStack> STACK = new ThreadLocal<ThreadStack>() {
+    @Override
+    protected ThreadStack initialValue() {
+      ThreadStack stack = new ThreadStack();
+      synchronized(STACKS) {
+        STACKS.add(stack);
+      }
+      return stack;
+    }
+  };
+  
+  static {
+    if (MODE == SAMPLE) {
+      Thread sampler = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for(;;) {
+            try {
+              Thread.sleep(SAMPLE_PERIOD_MILLIS);
+            } catch (InterruptedException e) {
+              return;
+            }
+            sample();
+          }
+        }
+      }, "ninal-sampler");
+      sampler.setDaemon(true);
+      sampler.start();
+    }
+  }
+  
+  private Profiler() {
+    // no instance
+  }
+  
+  private static int mode() {
+    String property = System.getProperty("ninal.profile");
+    if (property == null) {
+      return OFF;
+    }
+    switch(property) {
+    case "off":
+      return OFF;
+    case "":
+    case "instrument":
+      return INSTRUMENT;
+    case "sample":
+      return SAMPLE;
+    default:
+      throw new IllegalArgumentException("unknown profile mode " + property);
+    }
+  }
+  
+  /** Returns true if the profiler is enabled.
+   * @return true if the profiler is enabled.
+   */
+  public static boolean isEnabled() {
+    return MODE != OFF;
+  }
+  
+  static void sample() {
+    // the lock is held while counting, so endTask does not merge a tree being sampled
+    synchronized(STACKS) {
+      for(ThreadStack stack: STACKS) {
+        CallNode current = stack.current;
+        if (current != stack.root) {  // only count the threads that execute a function
+          current.selfTime++;       // in sample mode, only written by the sampler thread
+        }
+      }
+    }
+  }
+  
+  @SlowPath
+  static void enter(Symbol symbol) {
+    ThreadStack stack = STACK.get();
+    CallNode node = stack.current.child(symbol);
+    node.calls++;
+    if (MODE == INSTRUMENT) {
+      node.childTime = 0;
+      node.start = System.nanoTime();
+    }
+    stack.current = node;
+  }
+  
+  @SlowPath
+  static void exit() {
+    ThreadStack stack = STACK.get();
+    CallNode node = stack.current;
+    if (MODE == INSTRUMENT) {
+      long time = System.nanoTime() - node.start;
+      node.totalTime += time;
+      node.selfTime += time - node.childTime;
+      node.parent.childTime += time;
+    }
+    stack.current = node.parent;
+  }
+  
+  /** Merges the calling context tree of the current thread into the tree of the
+   *  ended tasks and forgets the thread, so the number of trees does not grow with
+   *  the number of tasks run by short lived or pooled threads.
+   *  Must be called at the end of a task, when the thread does not execute a function.
+   *  The tree is removed from the sampled trees and merged under the same lock,
+   *  so no sample is lost or counted twice.
+   */
+  @SlowPath
+  public static void endTask() {
+    ThreadStack stack = STACK.get();
+    STACK.remove();
+    synchronized(STACKS) {
+      STACKS.remove(stack);
+      merge(stack.root, FINISHED);
+    }
+  }
+  
+  private static void merge(CallNode node, CallNode into) {
+    for(CallNode child: node.children()) {
+      CallNode intoChild = into.child(child.symbol);
+      intoChild.calls += child.calls;
+      intoChild.selfTime += child.selfTime;
+      intoChild.totalTime += child.totalTime;
+      merge(child, intoChild);
+    }
+  }
+  
+  private static ArrayList<CallNode> roots() {
+    ArrayList<CallNode> roots = new ArrayList<>();
+    synchronized(STACKS) {
+      roots.add(FINISHED);
+      for(ThreadStack stack: STACKS) {
+        roots.add(stack.root);
+      }
+    }
+    return roots;
+  }
+  
+  /** Statistics of a function. */
+  static final class FunctionStats {
+    final Symbol symbol;
+    long calls;
+    long selfTime;
+    long totalTime;
+    
+    FunctionStats(Symbol symbol) {
+      this.symbol = symbol;
+    }
+  }
+  
+  private static void aggregate(CallNode node, HashMap<Symbol, FunctionStats> statsMap, HashMap<Symbol, Integer> active) {
+    FunctionStats stats = statsMap.get(node.symbol);
+    if (stats == null) {
+      stats = new FunctionStats(node.symbol);
+      statsMap.put(node.symbol, stats);
+    }
+    stats.calls += node.calls;
+    stats.selfTime += node.selfTime;
+    Integer depth = active.get(node.symbol);
+    if (depth == null) {  // a recursive call is already counted by the outermost call
+      stats.totalTime += (MODE == INSTRUMENT)? node.totalTime: sampleTotal(node);
+    }
+    active.put(node.symbol, (depth == null)? 1: depth + 1);
+    for(CallNode child: node.children()) {
+      aggregate(child, statsMap, active);
+    }
+    if (depth == null) {
+      active.remove(node.symbol);
+    } else {
+      active.put(node.symbol, depth);
+    }
+  }
+  
+  private static long sampleTotal(CallNode node) {
+    long total = node.selfTime;
+    for(CallNode child: node.children()) {
+      total += sampleTotal(child);
+    }
+    return total;
+  }
+  
+  /** Prints, for each function, the number of calls, the self time and the total time,
+   *  sorted by self time.
+   * @param out the stream to print to.
+   */
+  public static void printReport(PrintStream out) {
+    HashMap<Symbol, FunctionStats> statsMap = new HashMap<>();
+    for(CallNode root: roots()) {
+      for(CallNode child: root.children()) {
+        aggregate(child, statsMap, new HashMap<Symbol, Integer>());
+      }
+    }
+    ArrayList<FunctionStats> statsList = new ArrayList<>(statsMap.values());
+    Collections.sort(statsList, new Comparator<FunctionStats>() {
+      @Override
+      public int compare(FunctionStats stats1, FunctionStats stats2) {
+        return Long.compare(stats2.selfTime, stats1.selfTime);
+      }
+    });
+    String unit = (MODE == INSTRUMENT)? "ms": "samples";
+    out.printf("%-24s %12s %14s %14s%n", "function", "calls", "self (" + unit + ")", "total (" + unit + ")");
+    for(FunctionStats stats: statsList) {
+      if (MODE == INSTRUMENT) {
+        out.printf("%-24s %12d %14.3f %14.3f%n", stats.symbol, stats.calls, stats.selfTime / 1e6, stats.totalTime / 1e6);
+      } else {
+        out.printf("%-24s %12d %14d %14d%n", stats.symbol, stats.calls, stats.selfTime, stats.totalTime);
+      }
+    }
+  }
+  
+  private static void collapse(CallNode node, String path, Map<String, Long> weights) {
+    String nodePath = (path == null)? node.symbol.getName(): path + ';' + node.symbol.getName();
+    // self time in microseconds in instrument mode
+    long weight = (MODE == INSTRUMENT)? node.selfTime / 1000: node.selfTime;
+    if (weight != 0) {
+      Long previous = weights.get(nodePath);
+      weights.put(nodePath, (previous == null)? weight: previous + weight);
+    }
+    for(CallNode child: node.children()) {
+      collapse(child, nodePath, weights);
+    }
+  }
+  
+  /** Writes the collapsed call stacks, the input format of flamegraph.pl.
+   * @param writer the writer to write to.
+   */
+  public static void writeCollapsedStacks(Writer writer) {
+    HashMap<String, Long> weights = new HashMap<>();
+    for(CallNode root: roots()) {
+      for(CallNode child: root.children()) {
+        collapse(child, null, weights);
+      }
+    }
+    PrintWriter printer = new PrintWriter(writer);
+    for(Map.Entry<String, Long> entry: weights.entrySet()) {
+      printer.println(entry.getKey() + ' ' + entry.getValue());
+    }
+    printer.flush();
+  }
+  
+  /** Writes the collapsed call stacks into a file.
+   * @param path the path of the file.
+   * @throws IOException if an I/O error occurs.
+   *
+   * @see #writeCollapsedStacks(Writer)
+   */
+  public static void writeCollapsedStacks(Path path) throws IOException {
+    try(Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      writeCollapsedStacks(writer);
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package fr.umlv.ninal.interpreter;
+
+import com.oracle.truffle.api.CallTarget;
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+import com.oracle.truffle.api.TruffleRuntime;
+
+import fr.umlv.ninal.lang.List;
+
+/** A parsed source code cached by an {@link Engine}.
+ *  The call target of each top-level form is created the first time the form
+ *  is evaluated, by any context of the engine, then shared by all the contexts.
+ *
+ * @see Interpreter#eval(Source, Budget)
+ */
+public final class Source {
+  private final List[] forms;
+  private final CallTarget[] callTargets;
+  
+  Source(List[] forms) {
+    this.forms = forms;
+    this.callTargets = new CallTarget[forms.length];
+  }
+  
+  /** Returns the number of top-level forms.
+   * @return the number of top-level forms.
+   */
+  public int size() {
+    return forms.length;
+  }
+  
+  @SlowPath
+  synchronized CallTarget getCallTarget(TruffleRuntime runtime, Interpreter interpreter, int index) {
+    CallTarget callTarget = callTargets[index];
+    if (callTarget == null) {
+      callTarget = interpreter.prepare(runtime, forms[index]);
+      callTargets[index] = callTarget;
+    }
+    return callTarget;
+  }
+}
@@ -0,0 +1,153 @@
+package fr.umlv.ninal.interpreter;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+
+/** Counters of the specializations and the compilations of an interpreter.
+ *  All counters are updated on slow paths, so they are always enabled.
+ *  
+ *  This truffle runtime has no compilation listener, a call target is counted
+ *  as compiled the first time it executes compiled code and a compiled call target
+ *  is counted as invalidated when one of its nodes changes its type state.
+ *  
+ * @see Interpreter#getTelemetry()
+ */
+public final class Telemetry implements TelemetryMXBean {
+  private static final AtomicInteger ID = new AtomicInteger();
+  
+  private final AtomicLong typeTransitions = new AtomicLong();
+  private final ConcurrentHashMap<String, AtomicLong> typeTransitionsByNodeClass = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, AtomicLong> typeTransitionsByFunction = new ConcurrentHashMap<>();
+  private final AtomicLong invalidations = new AtomicLong();
+  private final AtomicLong unexpectedResults = new AtomicLong();
+  private final AtomicLong callTargetsCreated = new AtomicLong();
+  private final AtomicLong callTargetsCompiled = new AtomicLong();
+  private final AtomicLong callTargetsInvalidated = new AtomicLong();
+  
+  Telemetry() {
+    // created by the interpreter
+  }
+  
+  private static void increment(ConcurrentHashMap<String, AtomicLong> map, String key) {
+    AtomicLong counter = map.get(key);
+    if (counter == null) {
+      AtomicLong newCounter = new AtomicLong();
+      counter = map.putIfAbsent(key, newCounter);
+      if (counter == null) {
+        counter = newCounter;
+      }
+    }
+    counter.incrementAndGet();
+  }
+  
+  private static Map<String, Long> snapshot(ConcurrentHashMap<String, AtomicLong> map) {
+    TreeMap<String, Long> snapshot = new TreeMap<>();
+    for(Map.Entry<String, AtomicLong> entry: map.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().get());
+    }
+    return snapshot;
+  }
+  
+  @SlowPath
+  void typeTransition(String nodeClass, String function, boolean invalidation, boolean compiled) {
+    typeTransitions.incrementAndGet();
+    increment(typeTransitionsByNodeClass, nodeClass);
+    increment(typeTransitionsByFunction, function);
+    if (invalidation) {
+      invalidations.incrementAndGet();
+      if (compiled) {
+        callTargetsInvalidated.incrementAndGet();
+      }
+    }
+  }
+  
+  @SlowPath
+  void unexpectedResult() {
+    unexpectedResults.incrementAndGet();
+  }
+  
+  void callTargetCreated() {
+    callTargetsCreated.incrementAndGet();
+  }
+  
+  @SlowPath
+  void callTargetCompiled() {
+    callTargetsCompiled.incrementAndGet();
+  }
+  
+  @Override
+  public long getTypeTransitions() {
+    return typeTransitions.get();
+  }
+  @Override
+  public Map<String, Long> getTypeTransitionsByNodeClass() {
+    return snapshot(typeTransitionsByNodeClass);
+  }
+  @Override
+  public Map<String, Long> getTypeTransitionsByFunction() {
+    return snapshot(typeTransitionsByFunction);
+  }
+  @Override
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+  @Override
+  public long getUnexpectedResults() {
+    return unexpectedResults.get();
+  }
+  @Override
+  public long getCallTargetsCreated() {
+    return callTargetsCreated.get();
+  }
+  @Override
+  public long getCallTargetsCompiled() {
+    return callTargetsCompiled.get();
+  }
+  @Override
+  public long getCallTargetsInvalidated() {
+    return callTargetsInvalidated.get();
+  }
+  
+  /** Registers the telemetry as an MBean in the platform MBean server,
+   *  with the name {@code fr.umlv.ninal:type=Telemetry,id=<n>}.
+   * @return the name of the MBean.
+   */
+  public ObjectName register() {
+    try {
+      ObjectName name = new ObjectName("fr.umlv.ninal:type=Telemetry,id=" + ID.incrementAndGet());
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+      return name;
+    } catch (JMException e) {
+      throw new IllegalStateException("can not register the telemetry MBean", e);
+    }
+  }
+  
+  /** Prints a summary of all counters.
+   * @param out the stream to print to.
+   */
+  public void printSummary(PrintStream out) {
+    out.println("type transitions: " + getTypeTransitions());
+    for(Map.Entry<String, Long> entry: getTypeTransitionsByNodeClass().entrySet()) {
+      out.println("  " + entry.getKey() + ": " + entry.getValue());
+    }
+    out.println("type transitions by function:");
+    for(Map.Entry<String, Long> entry: getTypeTransitionsByFunction().entrySet()) {
+      out.println("  " + entry.getKey() + ": " + entry.getValue());
+    }
+    out.println("invalidations: " + getInvalidations());
+    out.println("unexpected results: " + getUnexpectedResults());
+    out.println("call targets created: " + getCallTargetsCreated());
+    out.println("call targets compiled: " + getCallTargetsCompiled());
+    out.println("call targets invalidated: " + getCallTargetsInvalidated());
+  }
+}
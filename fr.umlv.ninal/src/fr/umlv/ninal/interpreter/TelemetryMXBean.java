@@ -0,0 +1,51 @@
+package fr.umlv.ninal.interpreter;
+
+import java.util.Map;
+
+/** Management interface of the telemetry of an interpreter.
+ * 
+ * @see Telemetry#register()
+ */
+public interface TelemetryMXBean {
+  /** Returns the number of type transitions of all nodes.
+   * @return the number of type transitions of all nodes.
+   */
+  long getTypeTransitions();
+  
+  /** Returns the number of type transitions by node class.
+   * @return the number of type transitions by node class.
+   */
+  Map<String, Long> getTypeTransitionsByNodeClass();
+  
+  /** Returns the number of type transitions by function.
+   * @return the number of type transitions by function.
+   */
+  Map<String, Long> getTypeTransitionsByFunction();
+  
+  /** Returns the number of type transitions from a specialized type state,
+   *  i.e. the ones that invalidate the code specialized for the previous state.
+   * @return the number of invalidations.
+   */
+  long getInvalidations();
+  
+  /** Returns the number of times a specialized evaluation returned a value
+   *  of an unexpected type.
+   * @return the number of UnexpectedResultException thrown.
+   */
+  long getUnexpectedResults();
+  
+  /** Returns the number of call targets created for functions and lambdas.
+   * @return the number of call targets created.
+   */
+  long getCallTargetsCreated();
+  
+  /** Returns the number of call targets seen executing compiled code.
+   * @return the number of call targets compiled.
+   */
+  long getCallTargetsCompiled();
+  
+  /** Returns the number of invalidations in call targets that were already compiled.
+   * @return the number of invalidations of compiled call targets.
+   */
+  long getCallTargetsInvalidated();
+}
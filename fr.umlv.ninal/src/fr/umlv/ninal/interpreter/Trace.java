@@ -0,0 +1,147 @@
+package fr.umlv.ninal.interpreter;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.oracle.truffle.api.CompilerDirectives.SlowPath;
+import com.oracle.truffle.api.nodes.NodeUtil;
+
+/** Diagnostic traces of the interpreter.
+ *  
+ *  The level of each category is read once from the system property {@code ninal.trace},
+ *  by example {@code -Dninal.trace=specialization:debug,calls}
+ *  (a category without level means {@link #INFO}).
+ *  The levels are static final fields so a trace guarded by
+ *  {@code if (Trace.CALLS >= Trace.DEBUG)} is removed by the compiler when disabled.
+ *  
+ *  The traces are kept in a ring buffer of the last {@value #RING_SIZE} entries
+ *  which is printed on the standard error when the VM exits,
+ *  or written in the file specified by the system property {@code ninal.trace.file}.
+ */
+public final class Trace {
+  public enum Category {
+    PARSE, SPECIALIZATION, CALLS, COMPILATION
+  }
+  
+  public static final int OFF = 0;
+  public static final int INFO = 1;
+  public static final int DEBUG = 2;
+  
+  static final int PARSE = level(Category.PARSE);
+  static final int SPECIALIZATION = level(Category.SPECIALIZATION);
+  static final int CALLS = level(Category.CALLS);
+  static final int COMPILATION = level(Category.COMPILATION);
+  
+  private static final int RING_SIZE = 4096;
+  private static final String[] RING = new String[RING_SIZE];
+  private static long ringIndex;
+  private static final BufferedWriter WRITER;
+  static {
+    BufferedWriter writer = null;
+    String file = System.getProperty("ninal.trace.file");
+    if (file != null) {
+      try {
+        writer = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+      } catch (IOException e) {
+        throw new ExceptionInInitializerError(e);
+      }
+    }
+    WRITER = writer;
+    if (PARSE != OFF || SPECIALIZATION != OFF || CALLS != OFF || COMPILATION != OFF) {
+      Runtime.getRuntime().addShutdownHook(new Thread() {
+        @Override
+        public void run() {
+          if (WRITER == null) {
+            dump(System.err);
+            return;
+          }
+          synchronized(Trace.class) {
+            try {
+              WRITER.flush();
+            } catch (IOException e) {
+              // the VM is exiting
+            }
+          }
+        }
+      });
+    }
+  }
+  
+  private Trace() {
+    // no instance
+  }
+  
+  private static int level(Category category) {
+    String property = System.getProperty("ninal.trace");
+    if (property == null) {
+      return OFF;
+    }
+    String name = category.name().toLowerCase();
+    for(String item: property.split(",")) {
+      int colon = item.indexOf(':');
+      String itemName = (colon == -1)? item: item.substring(0, colon);
+      if (!itemName.trim().equals(name) && !itemName.trim().equals("all")) {
+        continue;
+      }
+      if (colon == -1) {
+        return INFO;
+      }
+      switch(item.substring(colon + 1).trim()) {
+      case "off":
+        return OFF;
+      case "info":
+        return INFO;
+      case "debug":
+        return DEBUG;
+      default:
+        throw new IllegalArgumentException("unknown trace level " + item);
+      }
+    }
+    return OFF;
+  }
+  
+  /** Records a trace, the caller should check the level of the category first.
+   * @param category the category of the trace.
+   * @param message the message of the trace.
+   */
+  @SlowPath
+  public static synchronized void log(Category category, String message) {
+    String entry = category.name().toLowerCase() + ": " + message;
+    if (WRITER != null) {
+      try {
+        WRITER.write(entry);
+        WRITER.newLine();
+      } catch (IOException e) {
+        throw new RuntimeException("can not write trace", e);
+      }
+      return;
+    }
+    RING[(int)(ringIndex++ % RING_SIZE)] = entry;
+  }
+  
+  /** Records the tree of a node.
+   * @param category the category of the trace.
+   * @param node a node.
+   */
+  @SlowPath
+  public static void logTree(Category category, com.oracle.truffle.api.nodes.Node node) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    NodeUtil.printTree(new PrintStream(out), node);
+    log(category, out.toString());
+  }
+  
+  /** Prints the content of the ring buffer, from the oldest trace to the newest.
+   * @param out the stream to print to.
+   */
+  public static synchronized void dump(PrintStream out) {
+    long start = Math.max(0, ringIndex - RING_SIZE);
+    for(long i = start; i < ringIndex; i++) {
+      out.println(RING[(int)(i % RING_SIZE)]);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package fr.umlv.ninal.lang;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+
+/** A mutable fixed size array.
+ *  The values are stored in an int[] while all values are ints,
+ *  the storage is widened to a long[] then to an Object[] only when needed.
+ *
+ *  An array can be shared by several tasks, the kind of the array is the type of
+ *  its storage, so the kind and the storage are switched together, and the widenings
+ *  are synchronized. A write that races with a widening may be lost.
+ */
+public class Array {
+  public static final int KIND_INT = 0;
+  public static final int KIND_LONG = 1;
+  public static final int KIND_OBJECT = 2;
+  
+  private volatile Object storage;  // an int[], a long[] or an Object[]
+  
+  public Array(int length) {
+    storage = new int[length];
+  }
+  
+  private Array(Object storage) {
+    this.storage = storage;
+  }
+  
+  /** Returns a new array with the same values, the values are not copied.
+   * @return a copy of this array.
+   */
+  public Array copy() {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      return new Array(((int[])storage).clone());
+    }
+    if (storage instanceof long[]) {
+      return new Array(((long[])storage).clone());
+    }
+    return new Array(((Object[])storage).clone());
+  }
+  
+  public int getKind() {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      return KIND_INT;
+    }
+    if (storage instanceof long[]) {
+      return KIND_LONG;
+    }
+    return KIND_OBJECT;
+  }
+  
+  public int length() {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      return ((int[])storage).length;
+    }
+    if (storage instanceof long[]) {
+      return ((long[])storage).length;
+    }
+    return ((Object[])storage).length;
+  }
+  
+  /** Returns the value at index, only valid if the kind is {@link #KIND_INT}.
+   *  If another task widened the array in between, the value is read from the new storage.
+   * @param index an index.
+   * @return the value at index.
+   * @throws ConcurrentModificationException if another task replaced the value
+   *         by a value that is not an int.
+   */
+  public int getInt(int index) {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      return ((int[])storage)[index];
+    }
+    Object value = get(storage, index);
+    if (value instanceof Integer) {
+      return (Integer)value;
+    }
+    throw new ConcurrentModificationException("array modified concurrently");
+  }
+  
+  public Object get(int index) {
+    return get(storage, index);
+  }
+  
+  private static Object get(Object storage, int index) {
+    if (storage instanceof int[]) {
+      return ((int[])storage)[index];
+    }
+    if (storage instanceof long[]) {
+      long value = ((long[])storage)[index];
+      if (value == (int)value) {
+        return (int)value;
+      }
+      return BigInteger.valueOf(value);
+    }
+    return ((Object[])storage)[index];
+  }
+  
+  public void setInt(int index, int value) {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      ((int[])storage)[index] = value;
+      return;
+    }
+    if (storage instanceof long[]) {
+      ((long[])storage)[index] = value;
+      return;
+    }
+    ((Object[])storage)[index] = value;
+  }
+  
+  public void set(int index, Object value) {
+    if (value instanceof Integer) {
+      setInt(index, (Integer)value);
+      return;
+    }
+    Object storage = this.storage;
+    if (storage instanceof Object[]) {
+      ((Object[])storage)[index] = value;
+      return;
+    }
+    widenAndSet(index, value);
+  }
+  
+  private synchronized void widenAndSet(int index, Object value) {
+    Object storage = this.storage;  // may have been widened by another task
+    if (!(storage instanceof Object[]) && value instanceof BigInteger && ((BigInteger)value).bitLength() < 64) {
+      long[] longs = (storage instanceof long[])? (long[])storage: widenToLong((int[])storage);
+      longs[index] = ((BigInteger)value).longValue();
+      this.storage = longs;
+      return;
+    }
+    Object[] objects = (storage instanceof Object[])? (Object[])storage: widenToObject(storage);
+    objects[index] = value;
+    this.storage = objects;
+  }
+  
+  private static long[] widenToLong(int[] ints) {
+    long[] longs = new long[ints.length];
+    for(int i = 0; i < ints.length; i++) {
+      longs[i] = ints[i];
+    }
+    return longs;
+  }
+  
+  private static Object[] widenToObject(Object storage) {
+    int length = (storage instanceof int[])? ((int[])storage).length: ((long[])storage).length;
+    Object[] objects = new Object[length];
+    for(int i = 0; i < length; i++) {
+      objects[i] = get(storage, i);
+    }
+    return objects;
+  }
+  
+  @Override
+  public String toString() {
+    Object storage = this.storage;
+    if (storage instanceof int[]) {
+      return Arrays.toString((int[])storage);
+    }
+    if (storage instanceof long[]) {
+      return Arrays.toString((long[])storage);
+    }
+    return Arrays.toString((Object[])storage);
+  }
+}
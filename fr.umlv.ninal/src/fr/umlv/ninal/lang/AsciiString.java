@@ -0,0 +1,83 @@
+package fr.umlv.ninal.lang;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/** A string of ASCII characters read directly from the bytes of a buffer,
+ *  by example a memory mapped file, the characters are not copied.
+ *  The buffer is kept alive as long as the string.
+ *
+ *  Like a {@link Rope}, an ASCII string is equal to another ASCII string
+ *  with the same characters and has the hash code of its String.
+ */
+public final class AsciiString implements CharSequence {
+  private final ByteBuffer buffer;
+  private final int offset;
+  private final int length;
+  
+  /** Creates a string from the bytes of a buffer, all the bytes must be ASCII characters.
+   * @param buffer a buffer.
+   * @param offset the index of the first byte.
+   * @param length the number of bytes.
+   */
+  public AsciiString(ByteBuffer buffer, int offset, int length) {
+    this.buffer = buffer;
+    this.offset = offset;
+    this.length = length;
+  }
+  
+  @Override
+  public int length() {
+    return length;
+  }
+  
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new StringIndexOutOfBoundsException(index);
+    }
+    return (char)buffer.get(offset + index);
+  }
+  
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || end > length || start > end) {
+      throw new StringIndexOutOfBoundsException("start " + start + " end " + end + " length " + length);
+    }
+    return new AsciiString(buffer, offset + start, end - start);
+  }
+  
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof AsciiString)) {
+      return false;
+    }
+    AsciiString string = (AsciiString)o;
+    if (length != string.length) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      if (buffer.get(offset + i) != string.buffer.get(string.offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  @Override
+  public String toString() {
+    byte[] bytes = new byte[length];
+    for(int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+}
@@ -0,0 +1,56 @@
+package fr.umlv.ninal.lang;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+public class Channel {
+  private final ArrayBlockingQueue<Object> queue;
+
+  public Channel(int capacity) {
+    this.queue = new ArrayBlockingQueue<>(capacity);
+  }
+  
+  /** Returns the number of values the channel can contain.
+   * @return the capacity of the channel.
+   */
+  public int capacity() {
+    return queue.size() + queue.remainingCapacity();
+  }
+  
+  /** Returns the values sent and not yet received.
+   * @return a new array containing the values of the channel.
+   */
+  public Object[] pendingValues() {
+    return queue.toArray();
+  }
+  
+  /** Sends a value, waits if the channel is full.
+   * @param value the value to send.
+   * @throws RuntimeException if the current thread is interrupted.
+   */
+  public void send(Object value) {
+    try {
+      queue.put(value);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while sending to a channel", e);
+    }
+  }
+  
+  /** Receives a value, waits if the channel is empty.
+   * @return the first value of the channel.
+   * @throws RuntimeException if the current thread is interrupted.
+   */
+  public Object receive() {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while receiving from a channel", e);
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "channel " + queue;
+  }
+}
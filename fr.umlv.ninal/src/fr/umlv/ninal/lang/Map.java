@@ -0,0 +1,193 @@
+package fr.umlv.ninal.lang;
+
+import java.util.HashMap;
+
+/** A mutable hash map.
+ *  While all keys are ints, the entries are stored in an open addressing table
+ *  with a primitive int array for the keys, so a lookup with an int key does not allocate.
+ *  The entries are moved to a general hash table the first time a key is not an int.
+ *  A key that is a string built by concatenation (a {@link Rope}) or read from a file
+ *  (an {@link AsciiString}) is stored as a String, so it is equal to the same string
+ *  whatever the way it was built.
+ */
+public class Map {
+  private int[] intKeys;
+  private Object[] intValues;  // a null value means an empty slot
+  private int size;
+  private HashMap<Object, Object> map;  // null while all keys are ints
+
+  public Map() {
+    intKeys = new int[16];
+    intValues = new Object[16];
+  }
+  
+  public int size() {
+    if (map != null) {
+      return map.size();
+    }
+    return size;
+  }
+  
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+  
+  private int slot(int key) {
+    int[] intKeys = this.intKeys;
+    Object[] intValues = this.intValues;
+    int mask = intKeys.length - 1;
+    for(int index = hash(key) & mask;; index = (index + 1) & mask) {
+      if (intValues[index] == null || intKeys[index] == key) {
+        return index;
+      }
+    }
+  }
+  
+  /** Returns the value associated with the key.
+   * @param key a key
+   * @return the value associated with the key or null.
+   */
+  public Object get(int key) {
+    if (map != null) {
+      return map.get(key);
+    }
+    return intValues[slot(key)];
+  }
+  
+  // the strings are compared by content
+  private static Object key(Object key) {
+    if (key instanceof CharSequence && !(key instanceof String)) {
+      return key.toString();
+    }
+    return key;
+  }
+  
+  /** Returns the value associated with the key.
+   * @param key a key
+   * @return the value associated with the key or null.
+   */
+  public Object get(Object key) {
+    if (key instanceof Integer) {
+      return get((int)(Integer)key);
+    }
+    if (map != null) {
+      return map.get(key(key));
+    }
+    return null;
+  }
+  
+  public void put(int key, Object value) {
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    if (map != null) {
+      map.put(key, value);
+      return;
+    }
+    int index = slot(key);
+    if (intValues[index] == null) {
+      intKeys[index] = key;
+      if (++size > intKeys.length >> 1) {
+        intValues[index] = value;
+        rehash();
+        return;
+      }
+    }
+    intValues[index] = value;
+  }
+  
+  public void put(Object key, Object value) {
+    if (key instanceof Integer) {
+      put((int)(Integer)key, value);
+      return;
+    }
+    if (value == null) {
+      throw new NullPointerException();
+    }
+    if (map == null) {
+      moveToGeneralTable();
+    }
+    map.put(key(key), value);
+  }
+  
+  /** Returns a new map with the same entries, the keys and the values are not copied.
+   * @return a copy of this map.
+   */
+  public Map copy() {
+    Map copy = new Map();
+    if (map != null) {
+      copy.map = new HashMap<>(map);
+      copy.intKeys = null;
+      copy.intValues = null;
+      return copy;
+    }
+    copy.intKeys = intKeys.clone();
+    copy.intValues = intValues.clone();
+    copy.size = size;
+    return copy;
+  }
+  
+  /** Returns the keys of the map.
+   * @return a new array containing the keys of the map.
+   */
+  public Object[] keys() {
+    if (map != null) {
+      return map.keySet().toArray();
+    }
+    Object[] keys = new Object[size];
+    int index = 0;
+    for(int i = 0; i < intKeys.length; i++) {
+      if (intValues[i] != null) {
+        keys[index++] = intKeys[i];
+      }
+    }
+    return keys;
+  }
+  
+  private void rehash() {
+    int[] oldKeys = intKeys;
+    Object[] oldValues = intValues;
+    intKeys = new int[oldKeys.length << 1];
+    intValues = new Object[oldValues.length << 1];
+    for(int i = 0; i < oldKeys.length; i++) {
+      Object value = oldValues[i];
+      if (value != null) {
+        int index = slot(oldKeys[i]);
+        intKeys[index] = oldKeys[i];
+        intValues[index] = value;
+      }
+    }
+  }
+  
+  private void moveToGeneralTable() {
+    HashMap<Object, Object> map = new HashMap<>();
+    for(int i = 0; i < intKeys.length; i++) {
+      Object value = intValues[i];
+      if (value != null) {
+        map.put(intKeys[i], value);
+      }
+    }
+    this.map = map;
+    intKeys = null;
+    intValues = null;
+    size = 0;
+  }
+  
+  @Override
+  public String toString() {
+    if (map != null) {
+      return map.toString();
+    }
+    StringBuilder builder = new StringBuilder().append('{');
+    String separator = "";
+    for(int i = 0; i < intKeys.length; i++) {
+      Object value = intValues[i];
+      if (value != null) {
+        builder.append(separator).append(intKeys[i]).append('=').append(value);
+        separator = ", ";
+      }
+    }
+    return builder.append('}').toString();
+  }
+}
@@ -0,0 +1,166 @@
+package fr.umlv.ninal.lang;
+
+import java.util.ArrayDeque;
+
+/** A lazy concatenation of strings.
+ *  A rope is flattened into a String only when its characters are needed,
+ *  so concatenating n strings in a loop is linear instead of quadratic.
+ *  An int converted to a string is also kept as an int and its digits
+ *  are written directly into the flattened characters.
+ *  
+ *  Two ropes are equal if they have the same characters and a rope has
+ *  the hash code of its String, but a rope is never equal to a String,
+ *  {@link Map} converts the keys that are ropes to Strings.
+ */
+public final class Rope implements CharSequence {
+  private static final int SHORT_LENGTH = 32;
+  
+  private final CharSequence left;   // null for an int
+  private final CharSequence right;  // null for an int
+  private final int value;
+  private final int length;
+  private String flat;               // cache of toString()
+  
+  private Rope(CharSequence left, CharSequence right, int value, int length) {
+    this.left = left;
+    this.right = right;
+    this.value = value;
+    this.length = length;
+  }
+  
+  /** Concatenates two strings.
+   * @param left the first string.
+   * @param right the second string.
+   * @return a rope or a String if the result is short.
+   */
+  public static CharSequence concat(CharSequence left, CharSequence right) {
+    if (left.length() == 0) {
+      return right;
+    }
+    if (right.length() == 0) {
+      return left;
+    }
+    int length = left.length() + right.length();
+    if (length < 0) {
+      throw new OutOfMemoryError("string too long");
+    }
+    if (length < SHORT_LENGTH && left instanceof String && right instanceof String) {
+      return ((String)left).concat((String)right);
+    }
+    return new Rope(left, right, 0, length);
+  }
+  
+  /** Returns the decimal representation of an int.
+   * @param value an int.
+   * @return a rope that will write the digits of value when flattened.
+   */
+  public static Rope valueOf(int value) {
+    return new Rope(null, null, value, stringSize(value));
+  }
+  
+  private static int stringSize(int value) {
+    long v = value;
+    int size = 1;
+    if (v < 0) {
+      size++;
+      v = -v;
+    }
+    while(v >= 10) {
+      v /= 10;
+      size++;
+    }
+    return size;
+  }
+  
+  // write the digits of value backward from end
+  private static void getChars(int value, char[] buffer, int end) {
+    long v = value;
+    boolean negative = v < 0;
+    if (negative) {
+      v = -v;
+    }
+    int index = end;
+    do {
+      buffer[--index] = (char)('0' + (v % 10));
+      v /= 10;
+    } while(v != 0);
+    if (negative) {
+      buffer[--index] = '-';
+    }
+  }
+  
+  @Override
+  public int length() {
+    return length;
+  }
+  
+  @Override
+  public char charAt(int index) {
+    return toString().charAt(index);
+  }
+  
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    return toString().substring(start, end);
+  }
+  
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof Rope)) {
+      return false;
+    }
+    Rope rope = (Rope)o;
+    return length == rope.length && toString().equals(rope.toString());
+  }
+  
+  @Override
+  public String toString() {
+    String flat = this.flat;
+    if (flat == null) {
+      this.flat = flat = flatten();
+    }
+    return flat;
+  }
+  
+  private String flatten() {
+    char[] buffer = new char[length];
+    int position = 0;
+    ArrayDeque<CharSequence> stack = new ArrayDeque<>();
+    stack.push(this);
+    while(!stack.isEmpty()) {
+      CharSequence sequence = stack.pop();
+      if (sequence instanceof Rope) {
+        Rope rope = (Rope)sequence;
+        if (rope.flat != null) {
+          sequence = rope.flat;
+        } else if (rope.left == null) {
+          position += rope.length;
+          getChars(rope.value, buffer, position);
+          continue;
+        } else {
+          stack.push(rope.right);
+          stack.push(rope.left);
+          continue;
+        }
+      }
+      int length = sequence.length();
+      if (sequence instanceof String) {
+        ((String)sequence).getChars(0, length, buffer, position);
+      } else {
+        for(int i = 0; i < length; i++) {
+          buffer[position + i] = sequence.charAt(i);
+        }
+      }
+      position += length;
+    }
+    return new String(buffer);
+  }
+}
@@ -0,0 +1,39 @@
+package fr.umlv.ninal.lang;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+public class Task {
+  private final Future<Object> future;
+
+  public Task(Future<Object> future) {
+    this.future = future;
+  }
+  
+  /** Waits for the end of the task.
+   * @return the result of the task.
+   * @throws RuntimeException if the task fails or the current thread is interrupted.
+   */
+  public Object join() {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while joining a task", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException)cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error)cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "task" + (future.isDone()? " done": "");
+  }
+}
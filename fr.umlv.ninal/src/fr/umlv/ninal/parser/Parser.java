@@ -8,12 +8,31 @@ import fr.umlv.ninal.lang.List.Builder;
 
 public class Parser {
   private static final char EOF = '\n';
+  private static final Symbol DEF = new Symbol("def");
   
   private final byte[] data;
+  private final int end;
+  private final boolean lazyBodies;
   private int index;
   
   public Parser(byte[] data) {
+    this(data, false);
+  }
+  
+  /** Creates a parser.
+   * @param data the source code.
+   * @param lazyBodies if true, the body of a def is not parsed but skipped
+   *        and returned as an {@link UnparsedList}.
+   */
+  public Parser(byte[] data, boolean lazyBodies) {
+    this(data, 0, data.length, lazyBodies);
+  }
+  
+  Parser(byte[] data, int start, int end, boolean lazyBodies) {
     this.data = data;
+    this.index = start;
+    this.end = end;
+    this.lazyBodies = lazyBodies;
   }
   
   public boolean end() {
@@ -22,7 +41,7 @@ public class Parser {
   
   private char current(boolean skipSpace) {
     for(;;) {
-      if (index == data.length) {
+      if (index == end) {
         return EOF;   // fake end of line
       }
       int c = data[index] & 0xff;
@@ -51,7 +70,8 @@ public class Parser {
     checkCurrentLetter('(');
     index++;
     List.Builder builder = new List.Builder();
-    for(;;) {
+    boolean isDef = false;
+    for(int count = 0;; count++) {
       char c = current(true);
       if (c == ')') {
         break;
@@ -59,12 +79,51 @@ public class Parser {
       if (c == EOF) {
         throw new ParsingException("premature end of file");
       }
-      builder.append(parseAtom());
+      if (isDef && count == 3 && c == '(') {  // body of a def
+        builder.append(skipList());
+        continue;
+      }
+      Object atom = parseAtom();
+      if (count == 0) {
+        isDef = lazyBodies && DEF.equals(atom);
+      }
+      builder.append(atom);
     }
     index++;
     return builder.toList();
   }
   
+  private UnparsedList skipList() {
+    int start = index;
+    index++;
+    int depth = 1;
+    while(depth != 0) {
+      if (index == end) {
+        throw new ParsingException("premature end of file");
+      }
+      char c = current(false);
+      switch(c) {
+      case '(':
+        depth++;
+        break;
+      case ')':
+        depth--;
+        break;
+      case '\'': case '"':
+        do {
+          index++;
+          if (index == end) {
+            throw new ParsingException("premature end of file");
+          }
+        } while(current(false) != c);
+        break;
+      default:
+      }
+      index++;
+    }
+    return new UnparsedList(data, start, index, lazyBodies);
+  }
+  
   private Object parseAtom() {
     char c = current(true);
     switch(c) {
@@ -0,0 +1,58 @@
+package fr.umlv.ninal.parser;
+
+import java.nio.charset.StandardCharsets;
+
+import fr.umlv.ninal.lang.List;
+
+/** A list that was skipped by the {@link Parser} and that is only parsed on demand.
+ */
+public class UnparsedList {
+  private final byte[] data;
+  private final int start;
+  private final int end;
+  private final boolean lazyBodies;
+  
+  UnparsedList(byte[] data, int start, int end, boolean lazyBodies) {
+    this.data = data;
+    this.start = start;
+    this.end = end;
+    this.lazyBodies = lazyBodies;
+  }
+  
+  public List parse() throws ParsingException {
+    return new Parser(data, start, end, lazyBodies).parseList();
+  }
+  
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for(int i = start; i < end; i++) {
+      hash = 31 * hash + data[i];
+    }
+    return hash;
+  }
+  
+  /** Two unparsed lists are equals if they have the same text. */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof UnparsedList)) {
+      return false;
+    }
+    UnparsedList list = (UnparsedList)o;
+    int length = end - start;
+    if (lazyBodies != list.lazyBodies || length != list.end - list.start) {
+      return false;
+    }
+    for(int i = 0; i < length; i++) {
+      if (data[start + i] != list.data[list.start + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  @Override
+  public String toString() {
+    return new String(data, start, end - start, StandardCharsets.US_ASCII);
+  }
+}
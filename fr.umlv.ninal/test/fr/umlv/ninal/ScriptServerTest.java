@@ -0,0 +1,127 @@
+package fr.umlv.ninal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import fr.umlv.ninal.interpreter.Budget;
+import fr.umlv.ninal.interpreter.Engine;
+import fr.umlv.ninal.interpreter.Interpreter;
+
+public class ScriptServerTest {
+  private Thread serverThread;
+  private SocketAddress address;
+  
+  @Before
+  public void setUp() throws IOException {
+    Interpreter interpreter = new Interpreter();
+    interpreter.interpret("(def square (x) (* x x))".getBytes(StandardCharsets.UTF_8));
+    final ScriptServer server = new ScriptServer(new Engine(interpreter),
+        new Budget(100000, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE));
+    final String port;
+    try(ServerSocket socket = new ServerSocket(0)) {
+      port = String.valueOf(socket.getLocalPort());
+    }
+    address = ScriptServer.address(port);
+    serverThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          server.serve(port);
+        } catch (IOException e) {
+          // interrupted
+        }
+      }
+    });
+    serverThread.setDaemon(true);
+    serverThread.start();
+  }
+  
+  @After
+  public void tearDown() throws InterruptedException {
+    serverThread.interrupt();
+    serverThread.join();
+  }
+  
+  static final class Response {
+    final int status;
+    final String out;
+    final String err;
+    
+    Response(int status, String out, String err) {
+      this.status = status;
+      this.out = out;
+      this.err = err;
+    }
+  }
+  
+  private Response send(String script) throws IOException, InterruptedException {
+    for(int i = 0; ; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      ByteArrayOutputStream err = new ByteArrayOutputStream();
+      int status;
+      try {
+        status = Client.send(address, script.getBytes(StandardCharsets.UTF_8),
+            Channels.newChannel(out), new PrintStream(err, true, "UTF-8"));
+      } catch(ConnectException e) {  // the server is not started yet
+        if (i == 100) {
+          throw e;
+        }
+        Thread.sleep(20);
+        continue;
+      }
+      return new Response(status, out.toString("UTF-8"), err.toString("UTF-8"));
+    }
+  }
+  
+  @Test
+  public void success() throws IOException, InterruptedException {
+    Response response = send("(print (square 3))\n(print \"done\")");
+    assertEquals(0, response.status);
+    assertEquals("9\ndone\n", response.out);
+    assertEquals("", response.err);
+  }
+  
+  @Test
+  public void largeOutput() throws IOException, InterruptedException {
+    Response response = send("(range i 0 20000 (print \"0123456789\"))");
+    assertEquals(0, response.status);
+    assertEquals(20000 * 11, response.out.length());
+  }
+  
+  @Test
+  public void error() throws IOException, InterruptedException {
+    Response response = send("(print 1)\n(print (cube 3))");
+    assertEquals(1, response.status);
+    assertEquals("1\n", response.out);
+    assertEquals("error: unknown function :cube\n", response.err);
+  }
+  
+  @Test
+  public void budgetOfEachRequest() throws IOException, InterruptedException {
+    Response response = send("(range i 0 200000 (+ i 1))");
+    assertEquals(1, response.status);
+    assertEquals("error: iteration limit of 100000 exceeded\n", response.err);
+    assertEquals(0, send("(range i 0 60000 (+ i 1))").status);
+    assertEquals(0, send("(range i 0 60000 (+ i 1))").status);
+  }
+  
+  @Test
+  public void requestsDoNotSeeTheGlobalsOfOtherRequests() throws IOException, InterruptedException {
+    assertEquals("1\n", send("(var x 1)\n(print x)").out);
+    Response response = send("(print x)");
+    assertEquals(1, response.status);
+    assertEquals("", response.out);
+  }
+}
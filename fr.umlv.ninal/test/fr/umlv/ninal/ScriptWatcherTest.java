@@ -0,0 +1,104 @@
+package fr.umlv.ninal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import fr.umlv.ninal.interpreter.Budget;
+import fr.umlv.ninal.interpreter.BudgetExceededException;
+import fr.umlv.ninal.interpreter.Interpreter;
+import fr.umlv.ninal.interpreter.Output;
+
+public class ScriptWatcherTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+  
+  private Interpreter interpreter;
+  private Output output;
+  private Path script;
+  
+  @Before
+  public void setUp() throws IOException {
+    interpreter = new Interpreter();
+    output = Output.memory();
+    interpreter.setOutput(output);
+    script = folder.newFile("script.ninal").toPath();
+  }
+  
+  // returns what is printed by the update
+  private String update(ScriptWatcher watcher, String content) throws IOException {
+    Files.write(script, content.getBytes(StandardCharsets.UTF_8));
+    int start = output.getContent().length();
+    watcher.update();
+    return output.getContent().substring(start);
+  }
+  
+  private void updateAndFail(ScriptWatcher watcher, String content) throws IOException {
+    try {
+      update(watcher, content);
+    } catch(RuntimeException e) {
+      return;
+    }
+    fail("the update should fail");
+  }
+  
+  @Test
+  public void onlyModifiedFormsAreEvaluated() throws IOException {
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script);
+    assertEquals("1\n2\n", update(watcher, "(print 1)\n(print 2)\n"));
+    assertEquals("3\n", update(watcher, "(print 1)\n(print 3)\n"));
+    assertEquals("", update(watcher, "(print 1)\n(print 3)\n"));
+  }
+  
+  @Test
+  public void entryPointsAreEvaluatedAgainIfADefinitionChanges() throws IOException {
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script);
+    assertEquals("2\n", update(watcher, "(def f (x) (+ x 1))\n(print (f 1))\n"));
+    assertEquals("11\n", update(watcher, "(def f (x) (+ x 10))\n(print (f 1))\n"));
+  }
+  
+  @Test
+  public void formsAfterAFailureAreEvaluatedAgain() throws IOException {
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script);
+    assertEquals("1\n2\n", update(watcher, "(def f (x) x)\n(print (f 1))\n(print 2)\n"));
+    updateAndFail(watcher, "(def f (x) x)\n(print (g 1))\n(print 3)\n");
+    assertEquals("5\n3\n", update(watcher, "(def f (x) x)\n(print (f 5))\n(print 3)\n"));
+  }
+  
+  @Test
+  public void failingDefinitionIsEvaluatedAgain() throws IOException {
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script);
+    updateAndFail(watcher, "(var v (array (- 0 1)))\n(print 1)\n");
+    assertEquals("1\n", update(watcher, "(var v (array 2))\n(print 1)\n"));
+  }
+  
+  @Test
+  public void budgetOfEachUpdate() throws IOException {
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script, new Budget(100, Long.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE));
+    assertEquals("60\n", update(watcher, "(var n 0)\n(range i 0 60 (set n (+ n 1)))\n(print n)\n"));
+    // only the modified forms are evaluated, with a new budget
+    assertEquals("130\n", update(watcher, "(var n 0)\n(range i 0 70 (set n (+ n 1)))\n(print (+ n 0))\n"));
+    try {
+      update(watcher, "(var n 0)\n(range i 0 200 (set n (+ n 1)))\n(print n)\n");
+      fail();
+    } catch(BudgetExceededException e) {
+      assertEquals("iteration limit of 100 exceeded", e.getMessage());
+    }
+  }
+  
+  @Test
+  public void warmupsBeforeTheFirstEntryPoint() throws IOException {
+    interpreter.addWarmup(3, "(set n (+ n 1))");
+    ScriptWatcher watcher = new ScriptWatcher(interpreter, script);
+    assertEquals("3\n", update(watcher, "(var n 0)\n(print n)\n"));
+  }
+}
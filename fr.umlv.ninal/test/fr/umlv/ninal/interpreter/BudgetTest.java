@@ -0,0 +1,147 @@
+package fr.umlv.ninal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class BudgetTest {
+  private static final long NO_LIMIT = Long.MAX_VALUE;
+  
+  private static String run(String script, Budget budget) {
+    Interpreter interpreter = new Interpreter();
+    Output output = Output.memory();
+    interpreter.setOutput(output);
+    interpreter.interpret(script.getBytes(StandardCharsets.UTF_8), budget);
+    return output.getContent();
+  }
+  
+  private static void assertExceeded(String message, String script, Budget budget) {
+    try {
+      run(script, budget);
+    } catch(BudgetExceededException e) {
+      assertEquals(message, e.getMessage());
+      return;
+    }
+    fail("no budget exceeded, expected " + message);
+  }
+  
+  private static Budget iterations(long maxIterations) {
+    return new Budget(maxIterations, NO_LIMIT, Integer.MAX_VALUE, NO_LIMIT);
+  }
+  
+  private static Budget allocations(long maxAllocations) {
+    return new Budget(NO_LIMIT, NO_LIMIT, Integer.MAX_VALUE, maxAllocations);
+  }
+  
+  @Test
+  public void rangeWithinLimit() {
+    assertEquals("100\n", run("(block (var n 0) (range i 0 100 (set n (+ n 1))) (print n))", iterations(100)));
+  }
+  
+  @Test
+  public void rangeIterations() {
+    assertExceeded("iteration limit of 100 exceeded", "(block (var n 0) (range i 0 101 (set n (+ n 1))))", iterations(100));
+  }
+  
+  @Test
+  public void countOverRangeSequence() {
+    assertExceeded("iteration limit of 1000 exceeded", "(print (count (range-seq 0 1000000)))", iterations(1000));
+  }
+  
+  @Test
+  public void toListOverRangeSequence() {
+    assertExceeded("iteration limit of 1000 exceeded", "(print (to-list (range-seq 0 1000000)))", iterations(1000));
+  }
+  
+  @Test
+  public void reduceOverRangeSequence() {
+    assertExceeded("iteration limit of 1000 exceeded",
+        "(print (reduce (lambda (acc x) (+ acc x)) 0 (range-seq 0 600)))", iterations(1000));
+  }
+  
+  @Test
+  public void warmupIterations() {
+    assertExceeded("iteration limit of 1000 exceeded", "(warmup 100000 (+ 1 2))", iterations(1000));
+  }
+  
+  @Test
+  public void benchIterations() {
+    assertExceeded("iteration limit of 1000 exceeded", "(bench add 100000 (+ 1 2))", iterations(1000));
+  }
+  
+  @Test
+  public void callDepth() {
+    assertExceeded("call depth limit of 50 exceeded",
+        "(def loop (n) (if (< n 1) 0 (+ 1 (loop (- n 1)))))\n(print (loop 100))",
+        new Budget(NO_LIMIT, NO_LIMIT, 50, NO_LIMIT));
+  }
+  
+  @Test
+  public void time() {
+    assertExceeded("time limit of 50 ms exceeded",
+        "(range i 0 2000000000 (range j 0 2000000000 (+ i j)))",
+        new Budget(NO_LIMIT, 50, Integer.MAX_VALUE, NO_LIMIT));
+  }
+  
+  @Test
+  public void arrayAllocations() {
+    assertEquals("1000\n", run("(print (alen (array 1000)))", allocations(1000)));
+    assertExceeded("allocation limit of 1000 elements exceeded", "(print (alen (array 1001)))", allocations(1000));
+  }
+  
+  @Test
+  public void concatChargesTheLength() {
+    assertExceeded("allocation limit of 1000 elements exceeded",
+        "(block (var s \"\") (range i 0 100 (set s (concat s \"0123456789\"))))", allocations(1000));
+  }
+  
+  @Test
+  public void mapPutAllocations() {
+    assertExceeded("allocation limit of 1000 elements exceeded",
+        "(block (var m (map-new)) (range i 0 2000 (map-put m i i)))", allocations(1000));
+  }
+  
+  @Test
+  public void substringAllocations() {
+    assertExceeded("allocation limit of 1000 elements exceeded",
+        "(block (var s \"0123456789\") (range i 0 200 (substring s 0 10)))", allocations(1000));
+  }
+  
+  @Test
+  public void spawnedTasksShareTheLimits() {
+    String script =
+        "(def work (n) (block (var sum 0) (range i 0 n (set sum (+ sum 1))) sum))\n" +
+        "(block\n" +
+        "  (var t1 (spawn work 40000))\n" +
+        "  (var t2 (spawn work 40000))\n" +
+        "  (print (+ (join t1) (join t2)))\n" +
+        ")\n";
+    assertEquals("80000\n", run(script, iterations(100000)));
+    assertExceeded("iteration limit of 50000 exceeded", script, iterations(50000));
+  }
+  
+  @Test
+  public void spawnedTasksHaveTheirOwnDepth() {
+    String script =
+        "(def loop (n) (if (< n 1) 0 (+ 1 (loop (- n 1)))))\n" +
+        "(def deep (n) (loop n))\n" +
+        "(block\n" +
+        "  (var t1 (spawn deep 30))\n" +
+        "  (var t2 (spawn deep 30))\n" +
+        "  (print (+ (join t1) (join t2)))\n" +
+        ")\n";
+    assertEquals("60\n", run(script, new Budget(NO_LIMIT, NO_LIMIT, 40, NO_LIMIT)));
+  }
+  
+  @Test
+  public void renewHasTheSameLimits() {
+    Budget budget = iterations(100);
+    String script = "(range i 0 60 (+ i 1))";
+    run(script, budget.renew());
+    run(script, budget.renew());
+    assertExceeded("iteration limit of 100 exceeded", script + script, budget.renew());
+  }
+}
@@ -0,0 +1,162 @@
+package fr.umlv.ninal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class EngineTest {
+  private static Engine engine(String library) {
+    Interpreter interpreter = new Interpreter();
+    interpreter.setOutput(Output.memory());
+    interpreter.interpret(library.getBytes(StandardCharsets.UTF_8));
+    return new Engine(interpreter);
+  }
+  
+  private static String eval(Engine engine, String script) {
+    Output output = Output.memory();
+    engine.eval(script.getBytes(StandardCharsets.UTF_8), output, Budget.unlimited());
+    return output.getContent();
+  }
+  
+  @Test
+  public void forksMutateTheirOwnCopyOfALibraryMap() {
+    Engine engine = engine("(var table (map-new))\n(map-put table 1 10)\n");
+    assertEquals("11\n", eval(engine, "(map-put table 1 11)\n(print (map-get table 1))"));
+    assertEquals("12\n", eval(engine, "(map-put table 1 (+ (map-get table 1) 2))\n(print (map-get table 1))"));
+    assertEquals("10\n1\n", eval(engine, "(print (map-get table 1))\n(print (map-size table))"));
+  }
+  
+  @Test
+  public void forksMutateTheirOwnCopyOfALibraryMapConcurrently() throws InterruptedException {
+    final Engine engine = engine("(var table (map-new))\n(def inc (i) (map-put table 0 (+ 1 (map-get table 0))))\n");
+    final String script = "(map-put table 0 0)\n(range i 0 10000 (inc i))\n(print (map-get table 0))";
+    final String[] results = new String[4];
+    Thread[] threads = new Thread[results.length];
+    for(int i = 0; i < threads.length; i++) {
+      final int index = i;
+      threads[i] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          results[index] = eval(engine, script);
+        }
+      });
+      threads[i].start();
+    }
+    for(Thread thread: threads) {
+      thread.join();
+    }
+    for(String result: results) {
+      assertEquals("10000\n", result);
+    }
+  }
+  
+  @Test
+  public void sharedValuesAreCopiedOnce() {
+    Engine engine = engine("(var a (array 2))\n(var m (map-new))\n(map-put m 0 a)\n(var o (array 1))\n(aset o 0 a)\n");
+    assertEquals("5\n5\n", eval(engine, "(aset a 0 5)\n(print (aget (map-get m 0) 0))\n(print (aget (aget o 0) 0))"));
+    assertEquals("0\n", eval(engine, "(print (aget a 0))"));
+  }
+  
+  @Test
+  public void forksMutateTheirOwnCopyOfALibraryArray() {
+    Engine engine = engine("(var counters (array 3))\n");
+    assertEquals("1\n", eval(engine, "(aset counters 1 (+ (aget counters 1) 1))\n(print (aget counters 1))"));
+    assertEquals("1\n", eval(engine, "(aset counters 1 (+ (aget counters 1) 1))\n(print (aget counters 1))"));
+    assertEquals("0\n", eval(engine, "(print (aget counters 1))"));
+  }
+  
+  @Test
+  public void forksDoNotSeeTheGlobalsOfOtherForks() {
+    Engine engine = engine("(var x 1)\n");
+    assertEquals("2\n", eval(engine, "(set x 2)\n(print x)"));
+    assertEquals("1\n", eval(engine, "(print x)"));
+  }
+  
+  @Test
+  public void sameScriptInSeveralContexts() {
+    Engine engine = engine("(def square (x) (* x x))\n(var base 3)\n");
+    String script = "(def twice (x) (+ x x))\n(set base (+ base 1))\n(print (twice (square base)))";
+    for(int i = 0; i < 3; i++) {
+      assertEquals("32\n", eval(engine, script));
+    }
+  }
+  
+  @Test
+  public void contextsRedefineTheFunctionsCalledByASharedFunction() {
+    Engine engine = engine("(def g (x) (+ x 1))\n(def f (x) (g x))\n");
+    for(int i = 0; i < 3; i++) {  // the call site of f is executed by several contexts
+      assertEquals("2\n", eval(engine, "(print (f 1))"));
+      assertEquals("10\n", eval(engine, "(def g (x) (* x 10))\n(print (f 1))"));
+      assertEquals("2\n0\n", eval(engine, "(print (f 1))\n(def g (x) (- x 1))\n(print (f 1))"));
+    }
+  }
+  
+  @Test
+  public void contextsDefineTheGlobalsReadByASharedFunction() {
+    Engine engine = engine("(def get () y)\n");
+    for(int i = 0; i < 3; i++) {  // the global node of get is executed by several contexts
+      assertEquals("" + i + "\n", eval(engine, "(var y " + i + ")\n(print (get))"));
+      try {
+        eval(engine, "(print (get))");
+        fail();
+      } catch(RuntimeException e) {
+        assertEquals("unknown symbol :y", e.getMessage());
+      }
+    }
+  }
+  
+  @Test
+  public void sourcesAreCachedByContent() {
+    Engine engine = new Engine(new Interpreter());
+    Source source = engine.getSource("(print 1)".getBytes(StandardCharsets.UTF_8));
+    assertSame(source, engine.getSource("(print 1)".getBytes(StandardCharsets.UTF_8)));
+    assertNotSame(source, engine.getSource("(print 2)".getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  @Test
+  public void leastRecentlyUsedSourceIsEvicted() {
+    Engine engine = new Engine(new Interpreter(), 2);
+    Source a = engine.getSource("(print 1)".getBytes(StandardCharsets.UTF_8));
+    Source b = engine.getSource("(print 2)".getBytes(StandardCharsets.UTF_8));
+    assertSame(a, engine.getSource("(print 1)".getBytes(StandardCharsets.UTF_8)));
+    engine.getSource("(print 3)".getBytes(StandardCharsets.UTF_8));  // evicts b
+    assertSame(a, engine.getSource("(print 1)".getBytes(StandardCharsets.UTF_8)));
+    assertNotSame(b, engine.getSource("(print 2)".getBytes(StandardCharsets.UTF_8)));
+  }
+  
+  @Test
+  public void evictedSourceIsEvaluatedAgain() {
+    Engine engine = new Engine(engine("(var base 3)\n").getInterpreter(), 1);
+    for(int i = 0; i < 3; i++) {
+      assertEquals("4\n", eval(engine, "(set base (+ base 1))\n(print base)"));
+      assertEquals("6\n", eval(engine, "(set base (+ base 3))\n(print base)"));
+    }
+  }
+  
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidSourceCacheSize() {
+    new Engine(new Interpreter(), 0);
+  }
+  
+  @Test
+  public void cachedSourcesDoNotKeepTheContextsAlive() throws InterruptedException {
+    Engine engine = engine("(def square (x) (* x x))\n(var base 3)\n");
+    String script = "(def twice (x) (+ x x))\n(set base (+ base 1))\n(print (twice (square base)))\n(bench b 2 (print base))";
+    WeakReference<Interpreter> context = new WeakReference<>(
+        engine.eval(script.getBytes(StandardCharsets.UTF_8), Output.memory(), Budget.unlimited()));
+    assertEquals("18\n", eval(engine, "(def twice (x) (+ x x))\n(print (twice (square base)))"));
+    for(int i = 0; i < 50 && context.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(context.get());
+    assertEquals("32\n", eval(engine, script).substring(0, 3));
+  }
+}
@@ -0,0 +1,78 @@
+package fr.umlv.ninal.interpreter;
+
+import static fr.umlv.ninal.interpreter.InterpreterTest.run;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSequenceTest {
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+  
+  private String file(String content) throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    return path.toString();
+  }
+  
+  @Test
+  public void readIntsSigns() throws IOException {
+    String path = file("-1 10-3 x-4 (-5) --6\n-7");
+    assertEquals("[-1, 10, 3, 4, -5, 6, -7]\n", run("(print (to-list (read-ints \"" + path + "\")))"));
+  }
+  
+  @Test
+  public void readIntsLargeNumbers() throws IOException {
+    String path = file("2147483648 -9223372036854775808 123456789012345678901234567890 -000000000000000000000042");
+    assertEquals("[2147483648, -9223372036854775808, 123456789012345678901234567890, -42]\n",
+        run("(print (to-list (read-ints \"" + path + "\")))"));
+  }
+  
+  @Test
+  public void readIntsSum() throws IOException {
+    String path = file("1\n2\n3\n4\n5");
+    assertEquals("15\n", run("(print (reduce (lambda (acc x) (+ acc x)) 0 (read-ints \"" + path + "\")))"));
+  }
+  
+  @Test
+  public void readIntsEmptyFile() throws IOException {
+    String path = file("");
+    assertEquals("0\n", run("(print (count (read-ints \"" + path + "\")))"));
+  }
+  
+  @Test
+  public void readLines() throws IOException {
+    String path = file("first\r\n\nthird line\nlast");
+    assertEquals("[first, , third line, last]\n4\n",
+        run("(block (var lines (read-lines \"" + path + "\")) (print (to-list lines)) (print (count lines)))"));
+  }
+  
+  @Test
+  public void readLinesUTF8() throws IOException {
+    String path = file("caf\u00e9\n\u00e9t\u00e9\n");
+    assertEquals("[caf\u00e9, \u00e9t\u00e9]\n3\n",
+        run("(block (var lines (read-lines \"" + path + "\")) (print (to-list lines)) (print (length (reduce (lambda (acc x) x) \"\" lines))))"));
+  }
+  
+  @Test
+  public void readLinesAsMapKeys() throws IOException {
+    String path = file("apple\nbanana\napple\n");
+    String script =
+        "(block\n" +
+        "  (var m (map-new))\n" +
+        "  (map-put m \"apple\" 0)\n" +
+        "  (map-put m \"banana\" 0)\n" +
+        "  (print (reduce (lambda (acc line) (block (map-put m line (+ 1 (map-get m line))) (+ acc 1))) 0 (read-lines \"" + path + "\")))\n" +
+        "  (print (map-get m \"apple\"))\n" +
+        "  (print (map-size m))\n" +
+        ")\n";
+    assertEquals("3\n2\n2\n", run(script));
+  }
+}
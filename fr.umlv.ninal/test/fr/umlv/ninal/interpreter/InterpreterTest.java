@@ -0,0 +1,110 @@
+package fr.umlv.ninal.interpreter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class InterpreterTest {
+  static String run(Interpreter interpreter, String script) {
+    Output output = Output.memory();
+    interpreter.setOutput(output);
+    interpreter.interpret(script.getBytes(StandardCharsets.UTF_8));
+    return output.getContent();
+  }
+  
+  static String run(String script) {
+    return run(new Interpreter(), script);
+  }
+  
+  static void assertError(String message, String script) {
+    try {
+      run(script);
+    } catch(RuntimeException e) {
+      assertEquals(message, e.getMessage());
+      return;
+    }
+    fail("no error, expected " + message);
+  }
+  
+  @Test
+  public void warmupAfterGlobalDefinitions() {
+    Interpreter interpreter = new Interpreter();
+    interpreter.addWarmup(3, "(set calls (+ calls (square base)))");
+    String script =
+        "(def square (x) (* x x))\n" +
+        "(var base 10)\n" +
+        "(var calls 0)\n" +
+        "(print calls)\n";
+    assertEquals("300\n", run(interpreter, script));
+  }
+  
+  @Test
+  public void channelCapacityMustBePositive() {
+    assertError("channel capacity must be a positive integer", "(channel 0)");
+    assertError("channel capacity must be a positive integer", "(channel (- 0 1))");
+    assertEquals("1\n", run("(block (var c (channel 1)) (send c 1) (print (receive c)))"));
+  }
+  
+  @Test
+  public void arrayLengthMustNotBeNegative() {
+    assertError("array length must be a positive or zero integer", "(array (- 0 1))");
+    assertEquals("0\n", run("(print (alen (array 0)))"));
+  }
+  
+  @Test
+  public void builtStringsAsMapKeys() {
+    String script =
+        "(block\n" +
+        "  (var m (map-new))\n" +
+        "  (map-put m (str 5) 1)\n" +
+        "  (print (map-get m (str 5)))\n" +
+        "  (print (map-get m \"5\"))\n" +
+        "  (var key \"\")\n" +
+        "  (range i 0 20 (set key (concat key (str i))))\n" +
+        "  (map-put m key 2)\n" +
+        "  (print (map-get m \"012345678910111213141516171819\"))\n" +
+        "  (print (map-size m))\n" +
+        ")\n";
+    assertEquals("1\n1\n2\n2\n", run(script));
+  }
+  
+  @Test
+  public void siblingBlocksWithVariablesOfDifferentKinds() {
+    String script =
+        "(def f (n)\n" +
+        "  (block\n" +
+        "    (var sum 0)\n" +
+        "    (range i 0 n\n" +
+        "      (block\n" +
+        "        (block (var a (+ i 1)) (set sum (+ sum a)))\n" +
+        "        (block (var b \"x\") (set sum (+ sum (length b))))\n" +
+        "        (block (var c (< i 3)) (set sum (+ sum (if c 100 0))))\n" +
+        "        (block (var d (+ i 1000)) (set sum (+ sum d)))\n" +
+        "      )\n" +
+        "    )\n" +
+        "    sum\n" +
+        "  )\n" +
+        ")\n" +
+        "(print (f 4))\n" +
+        "(print (f 4))\n";
+    assertEquals("4320\n4320\n", run(script));
+  }
+  
+  @Test
+  public void reassignedGlobalReadFromAFunction() {
+    String script =
+        "(var counter 0)\n" +
+        "(def inc () (set counter (+ counter 1)))\n" +
+        "(def get () counter)\n" +
+        "(range i 0 1000 (inc))\n" +
+        "(print (get))\n" +
+        "(set counter (< 1 2))\n" +
+        "(print (get))\n" +
+        "(set counter \"done\")\n" +
+        "(print (get))\n";
+    assertEquals("1000\ntrue\ndone\n", run(script));
+  }
+}
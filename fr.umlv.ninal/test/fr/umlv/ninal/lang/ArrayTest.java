@@ -0,0 +1,77 @@
+package fr.umlv.ninal.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ArrayTest {
+  @Test
+  public void widenToLongThenToObject() {
+    Array array = new Array(3);
+    array.setInt(0, 1);
+    assertEquals(Array.KIND_INT, array.getKind());
+    array.set(1, BigInteger.valueOf(Long.MAX_VALUE));
+    assertEquals(Array.KIND_LONG, array.getKind());
+    assertEquals(1, array.get(0));
+    assertEquals(BigInteger.valueOf(Long.MAX_VALUE), array.get(1));
+    array.set(2, "foo");
+    assertEquals(Array.KIND_OBJECT, array.getKind());
+    assertEquals("[1, 9223372036854775807, foo]", array.toString());
+    assertEquals(3, array.length());
+  }
+  
+  @Test
+  public void copyIsIndependent() {
+    Array array = new Array(2);
+    array.setInt(0, 1);
+    Array copy = array.copy();
+    copy.set(1, "foo");
+    assertEquals(Array.KIND_INT, array.getKind());
+    assertEquals(0, array.get(1));
+    assertEquals("foo", copy.get(1));
+  }
+  
+  @Test(expected = ArrayIndexOutOfBoundsException.class)
+  public void widenOutOfBounds() {
+    Array array = new Array(2);
+    try {
+      array.set(2, "foo");
+    } finally {
+      assertEquals(Array.KIND_INT, array.getKind());
+    }
+  }
+  
+  @Test
+  public void readWhileAnotherThreadWidens() throws InterruptedException {
+    for(int round = 0; round < 200; round++) {
+      final Array array = new Array(1000);
+      final AtomicReference<Throwable> error = new AtomicReference<>();
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for(int i = 1; i < 1000; i++) {
+              if (array.getKind() == Array.KIND_INT) {
+                array.setInt(i, array.getInt(i) + 1);
+              } else {
+                array.get(i);
+              }
+            }
+          } catch(Throwable e) {
+            error.set(e);
+          }
+        }
+      });
+      reader.start();
+      array.set(0, BigInteger.valueOf(Long.MAX_VALUE));
+      array.set(0, "foo");
+      reader.join();
+      assertNull(error.get());
+      assertEquals("foo", array.get(0));
+    }
+  }
+}
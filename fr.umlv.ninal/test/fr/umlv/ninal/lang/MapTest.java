@@ -0,0 +1,53 @@
+package fr.umlv.ninal.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class MapTest {
+  @Test
+  public void intKeys() {
+    Map map = new Map();
+    for(int i = -1000; i < 1000; i++) {
+      map.put(i, (Object)(i * 2));
+    }
+    assertEquals(2000, map.size());
+    for(int i = -1000; i < 1000; i++) {
+      assertEquals(i * 2, map.get(i));
+    }
+    assertNull(map.get(1000));
+  }
+  
+  @Test
+  public void intKeysThenObjectKeys() {
+    Map map = new Map();
+    map.put(1, (Object)"one");
+    map.put("two", (Object)2);
+    assertEquals("one", map.get(1));
+    assertEquals("one", map.get((Object)1));
+    assertEquals(2, map.get("two"));
+    assertEquals(2, map.size());
+  }
+  
+  @Test
+  public void ropeKeyFoundByString() {
+    Map map = new Map();
+    map.put(Rope.valueOf(5), "five");
+    assertEquals("five", map.get("5"));
+    assertEquals("five", map.get(Rope.valueOf(5)));
+  }
+  
+  @Test
+  public void stringKeyFoundByRope() {
+    Map map = new Map();
+    String key = "a key longer than the threshold of the ropes";
+    map.put(key, (Object)1);
+    CharSequence rope = Rope.concat("a key longer than ", "the threshold of the ropes");
+    assertEquals(Rope.class, rope.getClass());
+    assertEquals(1, map.get(rope));
+    map.put(rope, (Object)2);
+    assertEquals(1, map.size());
+    assertEquals(2, map.get(key));
+  }
+}
@@ -0,0 +1,38 @@
+package fr.umlv.ninal.lang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class RopeTest {
+  @Test
+  public void concatInLoop() {
+    CharSequence text = "";
+    StringBuilder builder = new StringBuilder();
+    for(int i = -500; i < 20000; i++) {
+      text = Rope.concat(text, Rope.concat(Rope.valueOf(i), ","));
+      builder.append(i).append(',');
+    }
+    assertEquals(builder.length(), text.length());
+    assertEquals(builder.toString(), text.toString());
+  }
+  
+  @Test
+  public void valueOf() {
+    assertEquals("0", Rope.valueOf(0).toString());
+    assertEquals("-42", Rope.valueOf(-42).toString());
+    assertEquals(String.valueOf(Integer.MIN_VALUE), Rope.valueOf(Integer.MIN_VALUE).toString());
+    assertEquals(11, Rope.valueOf(Integer.MIN_VALUE).length());
+  }
+  
+  @Test
+  public void equalsAndHashCodeByContent() {
+    CharSequence rope1 = Rope.concat(Rope.valueOf(12), "3");
+    CharSequence rope2 = Rope.concat("1", Rope.valueOf(23));
+    assertEquals(rope1, rope2);
+    assertEquals(rope1.hashCode(), rope2.hashCode());
+    assertEquals("123".hashCode(), rope1.hashCode());
+    assertNotEquals(rope1, Rope.valueOf(124));
+  }
+}